@@ -0,0 +1,28 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * The benchmark scripts, packaged from benchmarks/scripts
+ */
+final class Corpus {
+    // Benchmark scripts are known to be valid, an error means the setup is broken
+    static final ErrorReporter FAIL = (line, where, message) -> {
+        throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+    };
+
+    private Corpus() {
+    }
+
+    static String read(String name) {
+        try (InputStream input = Corpus.class.getResourceAsStream("/scripts/" + name + ".lox")) {
+            if (input == null) throw new IllegalArgumentException("No benchmark script " + name);
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * What --coverage costs a running script, the corpus with and without its probes attached
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverageBenchmark {
+    @Param({"fib", "binary_trees", "nbody", "strings", "oop", "closures"})
+    public String script;
+
+    @Param({"false", "true"})
+    public boolean coverage;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        TokenStream tokens = new Lexer(Source.of(Corpus.read(script)), 1, Corpus.FAIL).scanTokens();
+        statements = new Parser(tokens, Corpus.FAIL).parse();
+        new Resolver().resolve(statements, Corpus.FAIL);
+        if (coverage) new Coverage().attach(statements);
+    }
+
+    @Benchmark
+    public void interpret(Blackhole blackhole) {
+        Interpreter interpreter = new Interpreter(text -> blackhole.consume(text));
+        RuntimeError error = interpreter.run(statements);
+        if (error != null) throw new IllegalStateException(error.getMessage());
+    }
+}
@@ -0,0 +1,70 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Times Lexer.scanTokens on a large generated script
+ * Divide the size by the average time for megabytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+    // Size of the generated script in megabytes
+    @Param({"8"})
+    public int megabytes;
+
+    private Source source;
+
+    @Setup
+    public void setUp() {
+        source = Source.of(generate(megabytes * 1024 * 1024));
+    }
+
+    @Benchmark
+    public TokenStream scanTokens() {
+        return new Lexer(source, 1, Corpus.FAIL).scanTokens();
+    }
+
+    /*
+     * Builds a script shaped like our generated ones: many small functions and
+     * classes with numeric literals, strings and repeated identifiers
+     */
+    static String generate(int size) {
+        StringBuilder source = new StringBuilder(size + 256);
+        int unit = 0;
+        while (source.length() < size) {
+            source.append("// generated unit ").append(unit).append('\n');
+            source.append("fun helper").append(unit).append("(count, scale) {\n");
+            source.append("    var total = 0;\n");
+            source.append("    for (var i = 0; i < count; i = i + 1) {\n");
+            source.append("        total = total + i * scale / 3.25 - ").append(unit % 97).append(";\n");
+            source.append("    }\n");
+            source.append("    if (total >= 1000000 and scale != 0) return \"big\";\n");
+            source.append("    return total;\n");
+            source.append("}\n");
+            source.append("class Point").append(unit).append(" {\n");
+            source.append("    init(x, y) { this.x = x; this.y = y; }\n");
+            source.append("    sum() { return this.x + this.y + ").append(unit).append(".5; }\n");
+            source.append("}\n");
+            source.append("print helper").append(unit).append("(10, 2) + \" units\";\n");
+            unit++;
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package tree_walk_interpreter;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Times printing numbers: the old Double.toString and substring formatting
+ * against Numbers, and the whole print path through BufferedOutput
+ * Scores are per number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormatBenchmark {
+    private static final int COUNT = 100_000;
+
+    @Param({"integral", "fractional"})
+    public String kind;
+
+    private final double[] numbers = new double[COUNT];
+    private final StringBuilder text = new StringBuilder(1 << 16);
+    private OutputSink out;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < COUNT; i++) {
+            numbers[i] = kind.equals("integral") ? i * 37 - 1_000_000 : i / 8.0 + 0.125;
+        }
+        // Drops the bytes, so only formatting and buffering are timed
+        out = new BufferedOutput(OutputStream.nullOutputStream(), BufferedOutput.DEFAULT_CAPACITY, false);
+    }
+
+    // What stringify did before Numbers
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int doubleToString() {
+        int length = 0;
+        for (double number : numbers) {
+            String formatted = Double.toString(number);
+            if (formatted.endsWith(".0")) formatted = formatted.substring(0, formatted.length() - 2);
+            text.append(formatted).append('\n');
+            length += drain();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int numbers() {
+        int length = 0;
+        for (double number : numbers) {
+            Numbers.append(text, number);
+            text.append('\n');
+            length += drain();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void print() {
+        for (double number : numbers) out.println(number);
+        out.flush();
+    }
+
+    private int drain() {
+        int length = text.length();
+        if (length < 1 << 16) return 0;
+        text.setLength(0);
+        return length;
+    }
+}
@@ -0,0 +1,70 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Each phase of running a script, measured separately over the corpus in benchmarks/scripts
+ * Every phase starts from the previous phase's output, prepared once in setUp.
+ * Run with -prof gc to see the allocation rate next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"fib", "binary_trees", "nbody", "strings", "oop", "closures"})
+    public String script;
+
+    private Source source;
+    private TokenStream tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        source = Source.of(Corpus.read(script));
+        tokens = new Lexer(source, 1, Corpus.FAIL).scanTokens();
+        statements = new Parser(tokens, Corpus.FAIL).parse();
+        new Resolver().resolve(statements, Corpus.FAIL);
+    }
+
+    @Benchmark
+    public TokenStream scanTokens() {
+        return new Lexer(source, 1, Corpus.FAIL).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, Corpus.FAIL).parse();
+    }
+
+    // Resolving again overwrites the same depths, so the tree stays runnable
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver().resolve(statements, Corpus.FAIL);
+        return statements;
+    }
+
+    // Fresh globals every time, printed lines go to the blackhole
+    @Benchmark
+    public void interpret(Blackhole blackhole) {
+        Interpreter interpreter = new Interpreter(text -> blackhole.consume(text));
+        RuntimeError error = interpreter.run(statements);
+        if (error != null) throw new IllegalStateException(error.getMessage());
+    }
+}
@@ -0,0 +1,208 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Allocation profiler for --allocations
+ * A heap dump only shows InterpreterInstance and HashMap, so this counts what
+ * the script allocates by the line of the statement that did it: instances,
+ * closures (function declarations and methods bound to an instance),
+ * environments (calls, blocks and bound methods) and strings built with +.
+ * Instances are also counted per class, and each one is registered with a
+ * Cleaner so the class's live count drops once it is collected. A snapshot
+ * thread records the live counts every 100 ms, so growth shows up over time.
+ * Live means not collected yet, a class whose instances are garbage only
+ * drops after the next GC.
+ */
+final class AllocationProfiler {
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 100;
+
+    static final int INSTANCES = 0;
+    static final int CLOSURES = 1;
+    static final int ENVIRONMENTS = 2;
+    static final int STRINGS = 3;
+    private static final String[] KINDS = {"instances", "closures", "environments", "strings"};
+
+    private final List<Counts> threads = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Counts> current = ThreadLocal.withInitial(this::register);
+    private final Map<InterpreterClass, Live> classes = new ConcurrentHashMap<>();
+    private final Cleaner cleaner = Cleaner.create();
+    private final long start = System.nanoTime();
+    // Only the snapshot thread touches this until it has stopped
+    private final StringBuilder snapshots = new StringBuilder("millis,class,live\n");
+    private final Thread snapshotter;
+
+    AllocationProfiler() {
+        this.snapshotter = Thread.ofPlatform().daemon().name("allocation-snapshots").unstarted(this::snapshotLoop);
+        snapshotter.start();
+    }
+
+    // The calling thread's counts, an interpreter keeps them for its whole life
+    Counts counts() {
+        return current.get();
+    }
+
+    void stop() {
+        snapshotter.interrupt();
+        try {
+            snapshotter.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+    }
+
+    void writeSnapshots(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(snapshots.toString());
+        }
+    }
+
+    // Totals, the lines that allocate most and the classes with most instances
+    void report(PrintStream out) {
+        long[] totals = new long[KINDS.length];
+        long[] lines = new long[0];
+        for (Counts counts : threads) {
+            if (counts.lines.length > lines.length) lines = Arrays.copyOf(lines, counts.lines.length);
+            for (int i = 0; i < counts.lines.length; i++) {
+                lines[i] += counts.lines[i];
+                totals[i % KINDS.length] += counts.lines[i];
+            }
+        }
+
+        out.printf("Allocations: %d instances, %d closures, %d environments, %d strings%n",
+            totals[INSTANCES], totals[CLOSURES], totals[ENVIRONMENTS], totals[STRINGS]);
+
+        int lineCount = lines.length / KINDS.length;
+        long[] byLine = new long[lineCount];
+        List<Integer> hot = new ArrayList<>();
+        for (int line = 0; line < lineCount; line++) {
+            for (int kind = 0; kind < KINDS.length; kind++) byLine[line] += lines[line * KINDS.length + kind];
+            if (byLine[line] > 0) hot.add(line);
+        }
+        hot.sort((a, b) -> Long.compare(byLine[b], byLine[a]));
+        out.printf("%-16s %12s %12s %12s %12s%n", "line", KINDS[0], KINDS[1], KINDS[2], KINDS[3]);
+        for (int line : hot.subList(0, Math.min(10, hot.size()))) {
+            int at = line * KINDS.length;
+            out.printf("%-16s %12d %12d %12d %12d%n", "line " + line,
+                lines[at + INSTANCES], lines[at + CLOSURES], lines[at + ENVIRONMENTS], lines[at + STRINGS]);
+        }
+
+        List<Live> sorted = new ArrayList<>(classes.values());
+        sorted.sort((a, b) -> Long.compare(b.created.sum(), a.created.sum()));
+        out.printf("%-16s %12s %12s %12s%n", "class", "created", "live", "peak live");
+        for (Live live : sorted.subList(0, Math.min(20, sorted.size()))) {
+            out.printf("%-16s %12d %12d %12d%n", live.name, live.created.sum(), live.count.sum(), live.peak);
+        }
+    }
+
+    private Counts register() {
+        Counts counts = new Counts(this);
+        threads.add(counts);
+        return counts;
+    }
+
+    private void snapshotLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(SNAPSHOT_INTERVAL_MILLIS);
+            } catch (InterruptedException error) {
+                break;
+            }
+            snapshot();
+        }
+    }
+
+    private void snapshot() {
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        for (Live live : classes.values()) {
+            long count = live.count.sum();
+            live.peak = Math.max(live.peak, count);
+            snapshots.append(millis).append(',').append(live.name).append(',').append(count).append('\n');
+        }
+    }
+
+    // Instances of one class, shared by every thread
+    private static final class Live {
+        final String name;
+        final LongAdder created = new LongAdder();
+        // Goes down on the cleaner's thread
+        final LongAdder count = new LongAdder();
+        // Only the snapshot thread writes this
+        long peak = 0;
+
+        Live(String name) {
+            this.name = name;
+        }
+    }
+
+    /*
+     * One thread's allocations, only that thread calls these
+     */
+    static final class Counts {
+        private final AllocationProfiler profiler;
+        // Cache of the shared per-class counters
+        private final Map<InterpreterClass, Live> classes = new IdentityHashMap<>();
+        // Statement running now, set by the interpreter
+        private int line = 0;
+        // Indexed by line * KINDS.length + kind
+        private long[] lines = new long[64 * KINDS.length];
+
+        private Counts(AllocationProfiler profiler) {
+            this.profiler = profiler;
+        }
+
+        void line(int line) {
+            this.line = line;
+        }
+
+        int line() {
+            return line;
+        }
+
+        void instance(InterpreterInstance instance) {
+            count(INSTANCES);
+            Live live = classes.get(instance.klass);
+            if (live == null) {
+                live = profiler.classes.computeIfAbsent(instance.klass, klass -> new Live(klass.name));
+                classes.put(instance.klass, live);
+            }
+            live.created.increment();
+            live.count.increment();
+            // Must not capture the instance, or it never becomes unreachable
+            profiler.cleaner.register(instance, live.count::decrement);
+        }
+
+        void closure() {
+            count(CLOSURES);
+        }
+
+        void environment() {
+            count(ENVIRONMENTS);
+        }
+
+        void string() {
+            count(STRINGS);
+        }
+
+        private void count(int kind) {
+            int at = line * KINDS.length + kind;
+            if (at >= lines.length) lines = Arrays.copyOf(lines, Math.max(at + KINDS.length, lines.length * 2));
+            lines[at]++;
+        }
+    }
+}
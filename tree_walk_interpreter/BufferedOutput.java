@@ -0,0 +1,62 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Print output for the command line, collected and written out in large blocks
+ * Not synchronized: each interpreter context gets its own buffer from forThread,
+ * and only writing a full block out locks the stream they share. Buffers are
+ * flushed when they fill up, when a run ends and wherever one thread can hand
+ * something to another, so output still comes out in an order the script could
+ * have observed. With lineFlush every print goes out straight away.
+ */
+class BufferedOutput implements OutputSink {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final OutputStream target;
+    private final int capacity;
+    private final boolean lineFlush;
+    private final StringBuilder text;
+
+    BufferedOutput(OutputStream target, int capacity, boolean lineFlush) {
+        this.target = target;
+        this.capacity = capacity;
+        this.lineFlush = lineFlush;
+        this.text = new StringBuilder(Math.min(capacity, DEFAULT_CAPACITY) + 64);
+    }
+
+    @Override
+    public void println(String line) {
+        text.append(line).append('\n');
+        if (lineFlush || text.length() >= capacity) flush();
+    }
+
+    @Override
+    public void println(double number) {
+        Numbers.append(text, number);
+        text.append('\n');
+        if (lineFlush || text.length() >= capacity) flush();
+    }
+
+    @Override
+    public void flush() {
+        if (text.length() == 0) return;
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        text.setLength(0);
+        synchronized (target) {
+            try {
+                target.write(bytes);
+                target.flush();
+            } catch (IOException error) {
+                // Like System.out, a closed stdout is not the script's problem.
+            }
+        }
+    }
+
+    @Override
+    public OutputSink forThread() {
+        return new BufferedOutput(target, capacity, lineFlush);
+    }
+}
@@ -0,0 +1,19 @@
+package tree_walk_interpreter;
+
+/*
+ * Collects everything one script run prints
+ * Synchronized because threads the script spawns print to it too.
+ */
+class CapturedOutput implements OutputSink {
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public synchronized void println(String line) {
+        text.append(line).append('\n');
+    }
+
+    @Override
+    public synchronized String toString() {
+        return text.toString();
+    }
+}
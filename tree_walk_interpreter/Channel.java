@@ -0,0 +1,64 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * Bounded channel between threads, made by the channel(capacity) native
+ * send blocks while it is full and receive while it is empty. On a virtual
+ * thread that parks the thread rather than its carrier.
+ * The queue is linked, so memory follows what is in it rather than the
+ * capacity a script asks for, and so does the heap quota.
+ */
+class Channel implements NativeObject {
+    // The queue takes no nulls, noll travels as this
+    private static final Object NOLL = new Object();
+
+    private static final Symbol SEND = Symbol.intern("send");
+    private static final Symbol RECEIVE = Symbol.intern("receive");
+
+    private final BlockingQueue<Object> queue;
+    private final NativeFunction send;
+    private final NativeFunction receive;
+
+    Channel(int capacity) {
+        queue = new LinkedBlockingQueue<>(capacity);
+        send = new NativeFunction(1, (interpreter, arguments) -> {
+            Object value = arguments.get(0);
+            Sharing.share(value);
+            interpreter.flushOutput();
+            // Charged while it waits in the queue, the receiver gives it back
+            interpreter.allocate(HeapQuota.CHANNEL_ENTRY, null);
+            try {
+                queue.put(value == null ? NOLL : value);
+            } catch (InterruptedException error) {
+                interpreter.release(HeapQuota.CHANNEL_ENTRY);
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while sending.");
+            }
+            return null;
+        });
+        receive = new NativeFunction(0, (interpreter, arguments) -> {
+            try {
+                Object value = queue.take();
+                interpreter.release(HeapQuota.CHANNEL_ENTRY);
+                return value == NOLL ? null : value;
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while receiving.");
+            }
+        });
+    }
+
+    @Override
+    public Object get(Symbol name) {
+        if (name == SEND) return send;
+        if (name == RECEIVE) return receive;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
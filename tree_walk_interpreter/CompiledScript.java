@@ -0,0 +1,71 @@
+package tree_walk_interpreter;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * A parsed and resolved script, safe to share and run on many threads at once
+ * The tree is never changed after compiling, every execute gets its own
+ * Interpreter with its own globals.
+ */
+public final class CompiledScript {
+    private final List<Stmt> statements;
+    private final List<Diagnostic> diagnostics;
+    // Where the script may open files, null when it can't, see ScriptEngine
+    private final Path fileRoot;
+
+    CompiledScript(List<Stmt> statements, List<Diagnostic> diagnostics, Path fileRoot) {
+        this.statements = statements;
+        this.diagnostics = diagnostics;
+        this.fileRoot = fileRoot;
+    }
+
+    // Compile errors, empty when the script can run
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+
+    /*
+     * Runs the script in a fresh context, what it prints is captured in the result
+     */
+    public ExecutionResult execute() {
+        return run(new Fuel(Fuel.UNLIMITED), null);
+    }
+
+    /*
+     * Same, but stops with an "Out of fuel." error after fuel loop iterations
+     * and calls, counted across every thread the script spawns
+     */
+    public ExecutionResult execute(long fuel) {
+        return run(new Fuel(fuel), null);
+    }
+
+    /*
+     * Also stops with a "Heap quota exceeded." error once the script has allocated
+     * about heapBytes, see HeapQuota for what counts. Long.MAX_VALUE lifts either limit.
+     * Charges add up over the run: only environments of finished blocks and calls
+     * are given back, so a long-running loop that makes and drops instances, strings,
+     * maps or arrays hits the cap in the end even though it keeps none of them.
+     * Size heapBytes for everything the script makes in a run, not what it holds at once.
+     */
+    public ExecutionResult execute(long fuel, long heapBytes) {
+        return run(new Fuel(fuel), heapBytes == HeapQuota.UNLIMITED ? null : new HeapQuota(heapBytes));
+    }
+
+    // Even unlimited runs are metered, so they yield on virtual threads
+    private ExecutionResult run(Fuel fuel, HeapQuota heapQuota) {
+        if (hasErrors()) {
+            throw new IllegalStateException("Script has compile errors: " + diagnostics.get(0));
+        }
+
+        CapturedOutput output = new CapturedOutput();
+        ScriptFiles files = fileRoot == null ? null : new ScriptFiles(fileRoot);
+        RuntimeError error = new Interpreter(output, null, null, fuel, heapQuota, files).run(statements);
+        List<Diagnostic> diagnostics = error == null ? List.of() : List.of(Diagnostic.runtime(error));
+        return new ExecutionResult(diagnostics, output.toString());
+    }
+}
@@ -0,0 +1,68 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * Lexes, parses and resolves a source, stopping after the first phase with errors
+ * Errors go to the given reporter and are counted here, so compiling depends
+ * on no shared state and can run on any thread.
+ */
+class Compiler {
+    private final ErrorReporter reporter;
+    private final boolean parallel;
+    private final Parser.FunctionBodies functionBodies;
+    private int errors = 0;
+
+    Compiler(ErrorReporter reporter, boolean parallel, Parser.FunctionBodies functionBodies) {
+        this.reporter = (line, where, message) -> {
+            errors++;
+            reporter.report(line, where, message);
+        };
+        this.parallel = parallel;
+        this.functionBodies = functionBodies;
+    }
+
+    /*
+     * Returns the resolved statements, or null if there was an error
+     */
+    List<Stmt> compile(Source source, Resolver resolver) {
+        // Timed for Flight Recorder and JMX, see ScriptEvents and InterpreterMetrics
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.compilations.increment();
+        List<Stmt> statements;
+        if (parallel) {
+            ScriptEvents.CompilePhase parse = ScriptEvents.beginPhase();
+            long parseStart = System.nanoTime();
+            statements = new ParallelParser(source, reporter, functionBodies).parse();
+            InterpreterMetrics.phase(InterpreterMetrics.PARSE, parseStart);
+            ScriptEvents.endPhase(parse, "lex and parse", statements.size(), 0);
+        } else {
+            ScriptEvents.CompilePhase lex = ScriptEvents.beginPhase();
+            long lexStart = System.nanoTime();
+            Lexer lexer = new Lexer(source, 1, reporter);
+            TokenStream tokens = lexer.scanTokens();
+            InterpreterMetrics.phase(InterpreterMetrics.LEX, lexStart);
+            ScriptEvents.endPhase(lex, "lex", 0, tokens.size());
+
+            ScriptEvents.CompilePhase parse = ScriptEvents.beginPhase();
+            long parseStart = System.nanoTime();
+            Parser parser = new Parser(tokens, reporter, functionBodies);
+            statements = parser.parse();
+            InterpreterMetrics.phase(InterpreterMetrics.PARSE, parseStart);
+            ScriptEvents.endPhase(parse, "parse", statements.size(), tokens.size());
+        }
+
+        // Stop if there was a syntax error.
+        if (errors > 0) return null;
+
+        ScriptEvents.CompilePhase resolve = ScriptEvents.beginPhase();
+        long resolveStart = System.nanoTime();
+        resolver.resolve(statements, reporter);
+        InterpreterMetrics.phase(InterpreterMetrics.RESOLVE, resolveStart);
+        ScriptEvents.endPhase(resolve, "resolve", statements.size(), 0);
+
+        // Stop if there was a resolution error/
+        if (errors > 0) return null;
+
+        return statements;
+    }
+}
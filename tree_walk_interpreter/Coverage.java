@@ -0,0 +1,199 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Statement and branch coverage for --coverage, written as an LCOV tracefile
+ * Probes from Instrumentation set one bit per statement and two per branch
+ * point, indexed by the node ids the Parser hands out. The branches are:
+ * if        condition true / false (the else arm, even when there is none)
+ * while     condition true (body entered) / false (skipped or left)
+ * and, or   right operand evaluated / short-circuited
+ * Bits only record whether something ran, so the report's counts are 0 or 1.
+ * That lets a probe come off its node once its bits are set: a statement after
+ * it first runs, a branch point once it has gone both ways. Covered code then
+ * runs as if there were no coverage at all.
+ * Bits are read once the script is done, after every thread that set them.
+ */
+final class Coverage {
+    private final List<Stmt> statements = new ArrayList<>();
+    private final List<Branch> branches = new ArrayList<>();
+    // Branch probes for conditions and left operands, until the walk reaches them
+    private final Map<Expr, Branch> pending = new IdentityHashMap<>();
+    private final Instrumentation.Probe statementProbe = new Instrumentation.Probe() {
+        @Override
+        public void enter(Object node) {
+            mark(statementBits, ((Stmt)node).id - firstId);
+        }
+
+        @Override
+        public boolean done(Object node) {
+            return true;
+        }
+    };
+    private int firstId = Integer.MAX_VALUE;
+    private int lastId = -1;
+    private long[] statementBits;
+    private long[] branchBits;
+
+    /*
+     * Instruments program, call before running it
+     */
+    void attach(List<Stmt> program) {
+        Instrumentation.attach(program, this::probe);
+        int size = Math.max(lastId - firstId + 1, 0);
+        statementBits = new long[(size + 63) / 64];
+        branchBits = new long[(size * 2 + 63) / 64];
+    }
+
+    void write(Path path, Path script) throws IOException {
+        Map<Integer, Boolean> lines = lines();
+        Map<Integer, List<Branch>> branchLines = new TreeMap<>();
+        for (Branch branch : branches) {
+            branchLines.computeIfAbsent(branch.line, line -> new ArrayList<>()).add(branch);
+        }
+
+        // One builder rather than string concatenation, whose first use of each shape costs milliseconds
+        StringBuilder lcov = new StringBuilder();
+        lcov.append("TN:\n");
+        lcov.append("SF:").append(script.toAbsolutePath()).append('\n');
+        for (Map.Entry<Integer, List<Branch>> entry : branchLines.entrySet()) {
+            int block = 0;
+            for (Branch branch : entry.getValue()) {
+                boolean taken = isSet(branchBits, branch.index(0));
+                boolean notTaken = isSet(branchBits, branch.index(1));
+                // "-" is LCOV for a branch point that never ran
+                boolean reached = taken || notTaken;
+                lcov.append("BRDA:").append(entry.getKey()).append(',').append(block).append(",0,")
+                    .append(reached ? (taken ? "1" : "0") : "-").append('\n');
+                lcov.append("BRDA:").append(entry.getKey()).append(',').append(block).append(",1,")
+                    .append(reached ? (notTaken ? "1" : "0") : "-").append('\n');
+                block++;
+            }
+        }
+        lcov.append("BRF:").append(branches.size() * 2).append('\n');
+        lcov.append("BRH:").append(branchesHit()).append('\n');
+        for (Map.Entry<Integer, Boolean> line : lines.entrySet()) {
+            lcov.append("DA:").append(line.getKey()).append(',').append(line.getValue() ? 1 : 0).append('\n');
+        }
+        lcov.append("LF:").append(lines.size()).append('\n');
+        lcov.append("LH:").append(linesHit(lines)).append('\n');
+        lcov.append("end_of_record\n");
+        Files.writeString(path, lcov, StandardCharsets.UTF_8);
+    }
+
+    void report(PrintStream out) {
+        Map<Integer, Boolean> lines = lines();
+        out.println("Coverage: " + linesHit(lines) + " of " + lines.size() + " lines, "
+            + branchesHit() + " of " + branches.size() * 2 + " branches");
+    }
+
+    // A line is covered when any statement starting on it ran
+    private Map<Integer, Boolean> lines() {
+        Map<Integer, Boolean> lines = new TreeMap<>();
+        for (Stmt stmt : statements) {
+            lines.merge(stmt.line, isSet(statementBits, stmt.id - firstId), Boolean::logicalOr);
+        }
+        return lines;
+    }
+
+    private int branchesHit() {
+        int hit = 0;
+        for (Branch branch : branches) {
+            if (isSet(branchBits, branch.index(0))) hit++;
+            if (isSet(branchBits, branch.index(1))) hit++;
+        }
+        return hit;
+    }
+
+    // The walk offers parents first, so conditions are in pending by the time they come up
+    private Instrumentation.Probe probe(Object node) {
+        if (node instanceof Stmt) {
+            Stmt stmt = (Stmt)node;
+            track(stmt.id);
+            statements.add(stmt);
+            if (stmt instanceof Stmt.If) {
+                pending.put(((Stmt.If)stmt).condition, new Branch(stmt.id, stmt.line, false, false));
+            } else if (stmt instanceof Stmt.While) {
+                pending.put(((Stmt.While)stmt).condition, new Branch(stmt.id, stmt.line, false, false));
+            }
+            return statementProbe;
+        }
+        if (node instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)node;
+            track(logical.id);
+            pending.put(logical.left, new Branch(logical.id, logical.operator.line, true, logical.operator.type == TokenType.OR));
+        }
+        // A logical can itself be the condition or left operand of another
+        return pending.remove(node);
+    }
+
+    private void track(int id) {
+        firstId = Math.min(firstId, id);
+        lastId = Math.max(lastId, id);
+    }
+
+    // Each bit is only set once, so the lock is only taken the first time
+    private static void mark(long[] bits, int index) {
+        long mask = 1L << index;
+        if ((bits[index >>> 6] & mask) != 0) return;
+        synchronized (bits) {
+            bits[index >>> 6] |= mask;
+        }
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static int linesHit(Map<Integer, Boolean> lines) {
+        int hit = 0;
+        for (boolean covered : lines.values()) if (covered) hit++;
+        return hit;
+    }
+
+    /*
+     * One branch point, sees the value of its condition or left operand
+     */
+    private final class Branch implements Instrumentation.Probe {
+        final int id;
+        final int line;
+        // For and/or the first branch is evaluating the right operand
+        final boolean logical;
+        final boolean or;
+
+        Branch(int id, int line, boolean logical, boolean or) {
+            this.id = id;
+            this.line = line;
+            this.logical = logical;
+            this.or = or;
+            branches.add(this);
+        }
+
+        int index(int arm) {
+            return (id - firstId) * 2 + arm;
+        }
+
+        @Override
+        public void value(Expr node, Object value) {
+            boolean truthy = Interpreter.isTruthy(value);
+            // An or stops at a true left operand, an and at a false one
+            boolean first = logical ? truthy != or : truthy;
+            mark(branchBits, index(first ? 0 : 1));
+        }
+
+        @Override
+        public boolean done(Object node) {
+            return isSet(branchBits, index(0)) && isSet(branchBits, index(1));
+        }
+    }
+}
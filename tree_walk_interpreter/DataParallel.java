@@ -0,0 +1,121 @@
+package tree_walk_interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * parallelMap and parallelReduce, run in chunks on the common ForkJoinPool
+ * Each chunk calls the script function through its own isolated Interpreter.
+ * The function and everything it can reach are shared first, and an isolated
+ * interpreter refuses to write to anything shared, so a function that mutates
+ * outside state fails with a runtime error instead of racing.
+ */
+final class DataParallel {
+    // Fewer elements than this per chunk and forking costs more than it saves
+    private static final int MIN_CHUNK = 64;
+
+    private DataParallel() {
+    }
+
+    static InterpreterArray map(Interpreter parent, InterpreterArray array, InterpreterCallable function) {
+        parent.allocate(HeapQuota.array(array.length()), null);
+        parent.checkHeap(HeapQuota.boxed(array.length()), null);
+        Object[] input = array.snapshot();
+        Object[] output = new Object[input.length];
+        Sharing.share(function);
+        for (Object element : input) Sharing.share(element);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int[] range : split(input.length)) {
+            tasks.add(() -> {
+                Interpreter worker = new Interpreter(parent, true);
+                try {
+                    // Each chunk writes its own slots, invokeAll publishes them.
+                    for (int i = range[0]; i < range[1]; i++) {
+                        output[i] = function.call(worker, Arrays.asList(input[i]));
+                    }
+                } finally {
+                    worker.flushOutput();
+                }
+                return null;
+            });
+        }
+        parent.flushOutput();
+        joinAll(ForkJoinPool.commonPool().invokeAll(tasks));
+        return InterpreterArray.of(output);
+    }
+
+    /*
+     * function has to be associative, chunks are folded separately and then folded together.
+     * Only the first chunk starts from initial, so it needn't be an identity.
+     */
+    static Object reduce(Interpreter parent, InterpreterArray array, InterpreterCallable function, Object initial) {
+        parent.checkHeap(HeapQuota.boxed(array.length()), null);
+        Object[] input = array.snapshot();
+        if (input.length == 0) return initial;
+        Sharing.share(function);
+        Sharing.share(initial);
+        for (Object element : input) Sharing.share(element);
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int[] range : split(input.length)) {
+            tasks.add(() -> {
+                Interpreter worker = new Interpreter(parent, true);
+                try {
+                    int from = range[0];
+                    Object accumulator = from == 0 ? initial : input[from++];
+                    for (int i = from; i < range[1]; i++) {
+                        accumulator = function.call(worker, Arrays.asList(accumulator, input[i]));
+                    }
+                    return accumulator;
+                } finally {
+                    worker.flushOutput();
+                }
+            });
+        }
+        parent.flushOutput();
+        List<Object> partials = joinAll(ForkJoinPool.commonPool().invokeAll(tasks));
+
+        Interpreter combiner = new Interpreter(parent, true);
+        try {
+            Object result = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) {
+                result = function.call(combiner, Arrays.asList(result, partials.get(i)));
+            }
+            return result;
+        } finally {
+            combiner.flushOutput();
+        }
+    }
+
+    // A few chunks per worker so uneven functions still balance
+    private static List<int[]> split(int length) {
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, length / MIN_CHUNK));
+        List<int[]> ranges = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            ranges.add(new int[] {(int)((long)length * i / chunks), (int)((long)length * (i + 1) / chunks)});
+        }
+        return ranges;
+    }
+
+    private static <T> List<T> joinAll(List<Future<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while waiting for workers.");
+            } catch (ExecutionException error) {
+                if (error.getCause() instanceof RuntimeException) throw (RuntimeException)error.getCause();
+                throw new IllegalStateException(error.getCause());
+            }
+        }
+        return results;
+    }
+}
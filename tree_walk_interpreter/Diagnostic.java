@@ -0,0 +1,56 @@
+package tree_walk_interpreter;
+
+/*
+ * One error from compiling or running a script
+ */
+public final class Diagnostic {
+    public enum Kind {
+        // Found by the Lexer, Parser or Resolver, the script does not run
+        COMPILE,
+        // Stopped a running script
+        RUNTIME
+    }
+
+    private final Kind kind;
+    private final int line;
+    private final String where;
+    private final String message;
+
+    Diagnostic(Kind kind, int line, String where, String message) {
+        this.kind = kind;
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    static Diagnostic runtime(RuntimeError error) {
+        // Some operand checks have no token to point at.
+        int line = error.token != null ? error.token.line : 0;
+        String where = error.token != null ? "at '" + error.token.lexeme + "'" : "";
+        return new Diagnostic(Kind.RUNTIME, line, where, error.getMessage());
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    // Zero when the error has no position
+    public int line() {
+        return line;
+    }
+
+    // Like "at 'foo'" or "at end", empty when there is nothing to point at
+    public String where() {
+        return where;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "[line " + line + "] " + (kind == Kind.RUNTIME ? "Runtime error" : "Error")
+            + (where.isEmpty() ? "" : " " + where) + ": " + message;
+    }
+}
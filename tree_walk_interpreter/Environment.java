@@ -5,10 +5,22 @@ import java.util.Map;
 
 /*
  * To store variables, to associate variables to values
+ * A frame belongs to the thread that created it and is accessed without locks.
+ * Once a spawned thread can reach it, it is marked shared: from then on every
+ * access locks the frame and every value stored in it is shared as well.
+ * A frame a closure captured outlives its scope, so its heap quota charge
+ * isn't given back when the scope exits.
  */
-class Environment {
+class Environment implements Shareable {
+    // Stands in for a variable that is not defined here, since noll is a valid value
+    private static final Object MISSING = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Keyed by interned symbol, so lookups hash an id and compare references
+    private final Map<Symbol, Object> values = new HashMap<>();
+    private volatile boolean shared = false;
+    // Only goes from false to true, and frames are shared only after a closure captured them
+    private boolean captured = false;
 
     Environment() {
         enclosing = null;
@@ -19,9 +31,8 @@ class Environment {
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+        Object value = read(name.symbol);
+        if (value != MISSING) return value;
 
         if (enclosing != null) return enclosing.get(name);
 
@@ -29,10 +40,7 @@ class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+        if (replace(name.symbol, value)) return;
 
          if (enclosing != null) {
             enclosing.assign(name, value);
@@ -42,8 +50,15 @@ class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    void define(Symbol name, Object value) {
+        if (shared) {
+            Sharing.share(value);
+            synchronized (this) {
+                values.put(name, value);
+            }
+        } else {
+            values.put(name, value);
+        }
     }
 
     Environment ancestor(int distance) {
@@ -55,11 +70,71 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, Symbol name) {
+        Object value = ancestor(distance).read(name);
+        return value == MISSING ? null : value;
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).define(name.symbol, value);
+    }
+
+    // Called where a closure is made over this frame, which holds on to its ancestors too
+    void capture() {
+        for (Environment frame = this; frame != null && !frame.captured; frame = frame.enclosing) {
+            frame.captured = true;
+        }
+    }
+
+    boolean isCaptured() {
+        return captured;
+    }
+
+    // Variables defined here, only read by the frame's own thread
+    int size() {
+        return values.size();
+    }
+
+    // Sharing walks the ancestors as well as the values held here
+    @Override
+    public boolean markShared() {
+        if (shared) return false;
+        shared = true;
+        return true;
+    }
+
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public Iterable<Object> sharedValues() {
+        return values.values();
+    }
+
+    private Object read(Symbol name) {
+        if (shared) {
+            synchronized (this) {
+                return values.getOrDefault(name, MISSING);
+            }
+        }
+        return values.getOrDefault(name, MISSING);
+    }
+
+    // Stores value only if name is defined in this frame
+    private boolean replace(Symbol name, Object value) {
+        if (shared) {
+            Sharing.share(value);
+            synchronized (this) {
+                if (!values.containsKey(name)) return false;
+                values.put(name, value);
+                return true;
+            }
+        }
+
+        if (!values.containsKey(name)) return false;
+        values.put(name, value);
+        return true;
     }
 }
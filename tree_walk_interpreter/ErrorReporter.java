@@ -0,0 +1,21 @@
+package tree_walk_interpreter;
+
+/*
+ * Where the Lexer and Parser send syntax errors
+ * Main.report is the default, chunked parsing buffers them and replays in order
+ */
+interface ErrorReporter {
+    void report(int line, String where, String message);
+
+    default void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, "at end", message);
+        } else {
+            report(token.line, "at '" + token.lexeme + "'", message);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * Outcome of one run of a CompiledScript
+ */
+public final class ExecutionResult {
+    private final List<Diagnostic> diagnostics;
+    private final String output;
+
+    ExecutionResult(List<Diagnostic> diagnostics, String output) {
+        this.diagnostics = diagnostics;
+        this.output = output;
+    }
+
+    // The runtime error that stopped the script, empty if it ran to the end
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    public boolean succeeded() {
+        return diagnostics.isEmpty();
+    }
+
+    // Everything the run printed, one line per print statement
+    public String output() {
+        return output;
+    }
+}
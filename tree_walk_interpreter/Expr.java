@@ -5,6 +5,7 @@ import java.util.List;
 /*
  * Base class for expressions
  * Sub class for each different type of expressions, for the non terminals specific to that rule
+ * Child expressions aren't final so Instrumentation can wrap them in place.
  */
 abstract class Expr {
     interface Visitor<R> {
@@ -13,6 +14,8 @@ abstract class Expr {
     R visitCallExpr(Call expr);
     R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitSetExpr(Set expr);
@@ -20,6 +23,7 @@ abstract class Expr {
     R visitThisExpr(This expr);
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
+    R visitWrapperExpr(Wrapper expr);
   }
     static class Assign extends Expr {
     Assign(Token name, Expr value) {
@@ -33,7 +37,9 @@ abstract class Expr {
     }
 
     final Token name;
-    final  Expr value;
+    Expr value;
+    // Scopes between this use and the declaration, set by the Resolver, -1 for globals
+    int depth = -1;
   }
     static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -47,9 +53,9 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
-    final Expr left;
+    Expr left;
     final  Token operator;
-    final  Expr right;
+    Expr right;
   }
     static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -63,7 +69,7 @@ abstract class Expr {
       return visitor.visitCallExpr(this);
     }
 
-    final Expr callee;
+    Expr callee;
     final  Token paren;
     final  List<Expr> arguments;
   }
@@ -78,7 +84,7 @@ abstract class Expr {
       return visitor.visitGetExpr(this);
     }
 
-    final Expr object;
+    Expr object;
     final  Token name;
   }
     static class Grouping extends Expr {
@@ -91,7 +97,41 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
-    final Expr expression;
+    Expr expression;
+  }
+    static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+    this.object = object;
+    this.bracket = bracket;
+    this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    Expr object;
+    final  Token bracket;
+    Expr index;
+  }
+    static class IndexSet extends Expr {
+    IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+    this.object = object;
+    this.bracket = bracket;
+    this.index = index;
+    this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    Expr object;
+    final  Token bracket;
+    Expr index;
+    Expr value;
   }
     static class Literal extends Expr {
     Literal(Object value) {
@@ -106,10 +146,11 @@ abstract class Expr {
     final Object value;
   }
     static class Logical extends Expr {
-    Logical(Expr left, Token operator, Expr right) {
+    Logical(Expr left, Token operator, Expr right, int id) {
     this.left = left;
     this.operator = operator;
     this.right = right;
+    this.id = id;
     }
 
     @Override
@@ -117,9 +158,11 @@ abstract class Expr {
       return visitor.visitLogicalExpr(this);
     }
 
-    final Expr left;
+    Expr left;
     final  Token operator;
-    final  Expr right;
+    Expr right;
+    // Node id from the Parser, unique within its compile, coverage tracks its branches by it
+    final int id;
   }
     static class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
@@ -133,9 +176,9 @@ abstract class Expr {
       return visitor.visitSetExpr(this);
     }
 
-    final Expr object;
+    Expr object;
     final  Token name;
-    final  Expr value;
+    Expr value;
   }
     static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -150,6 +193,8 @@ abstract class Expr {
 
     final Token keyword;
     final  Token method;
+    // Scopes between this use and the declaration, set by the Resolver, -1 for globals
+    int depth = -1;
   }
     static class This extends Expr {
     This(Token keyword) {
@@ -162,6 +207,8 @@ abstract class Expr {
     }
 
     final Token keyword;
+    // Scopes between this use and the declaration, set by the Resolver, -1 for globals
+    int depth = -1;
   }
     static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -175,7 +222,7 @@ abstract class Expr {
     }
 
     final Token operator;
-    final  Expr right;
+    Expr right;
   }
     static class Variable extends Expr {
     Variable(Token name) {
@@ -188,6 +235,26 @@ abstract class Expr {
     }
 
     final Token name;
+    // Scopes between this use and the declaration, set by the Resolver, -1 for globals
+    int depth = -1;
+  }
+
+    // Stands where node was while a probe is attached, see Instrumentation
+    static class Wrapper extends Expr {
+    Wrapper(Expr node, Instrumentation.Probe probe) {
+    this.node = node;
+    this.probe = probe;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitWrapperExpr(this);
+    }
+
+    final Expr node;
+    final  Instrumentation.Probe probe;
+    // Node or program list holding this wrapper, kept by Instrumentation under its lock
+    Object parent;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
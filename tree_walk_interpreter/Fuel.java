@@ -0,0 +1,57 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Execution budget for one run, shared by every thread the script spawns
+ * A unit is one loop iteration or one call, the only places a script can run
+ * for long. Each interpreter takes units from the budget in slices and counts
+ * them down in a plain field, so the hot path is a decrement and a compare.
+ * Taking the next slice is also where a run on a virtual thread gives up its
+ * carrier once it has had it for a timeslice, so a script that never blocks
+ * still lets the other runs in.
+ * An interpreter's unspent slice is lost with it, so a run with many threads
+ * can stop up to a slice per thread early.
+ */
+final class Fuel {
+    static final long UNLIMITED = Long.MAX_VALUE;
+    // Around a tenth of a millisecond of interpreting
+    static final int SLICE = 4096;
+    private static final long TIMESLICE_NANOS = 10_000_000;
+
+    private final AtomicLong remaining;
+
+    Fuel(long limit) {
+        if (limit < 1) throw new IllegalArgumentException("Fuel limit must be at least 1.");
+        this.remaining = new AtomicLong(limit);
+    }
+
+    // Up to a slice, 0 when the budget is spent
+    long take() {
+        long left;
+        long slice;
+        do {
+            left = remaining.get();
+            if (left == UNLIMITED) return SLICE;
+            slice = Math.min(left, SLICE);
+            if (slice == 0) return 0;
+        } while (!remaining.compareAndSet(left, left - slice));
+        return slice;
+    }
+
+    /*
+     * Lets other virtual threads run once this one has had its carrier for a timeslice
+     * since started, returns when the thread's current timeslice started
+     * Thread.yield() on JDK 21 put the thread straight back on its carrier ahead
+     * of runs waiting in the executor, a short park goes to the back of the line.
+     * It costs about a tenth of a millisecond, hence only once per timeslice.
+     */
+    static long yieldIfDue(long started) {
+        if (!Thread.currentThread().isVirtual()) return started;
+        long now = System.nanoTime();
+        if (now - started < TIMESLICE_NANOS) return started;
+        LockSupport.parkNanos(1);
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,85 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Cap on the bytes one run allocates, shared by every thread the script spawns
+ * The interpreter charges an estimate for everything a script makes: each
+ * instance, field, environment, variable, closure, bound method, string, map,
+ * map entry and array, at the point it is made, and each value while it waits
+ * in a channel. Sizes are rough figures for a 64-bit JVM with compressed
+ * pointers.
+ * A block's or call's environment is given back when the scope exits, unless a
+ * closure captured it, and so is a method bound just to be called. Everything
+ * else stays charged after it becomes garbage, so a loop that keeps making
+ * instances or strings runs out of quota in the end even if it drops them.
+ * Like Fuel, each interpreter takes the quota in shares and counts them down
+ * in a plain field, and an unspent share is lost with its interpreter.
+ */
+final class HeapQuota {
+    static final long UNLIMITED = Long.MAX_VALUE;
+    private static final long SHARE = 64 * 1024;
+
+    // Object header and field map
+    static final long INSTANCE = 64;
+    // Map entry and its share of the table
+    static final long FIELD = 40;
+    static final long ENVIRONMENT = 64;
+    static final long VARIABLE = 40;
+    static final long CLOSURE = 24;
+    // An environment holding this, and the function bound to it
+    static final long BOUND_METHOD = ENVIRONMENT + VARIABLE + CLOSURE;
+    // Both empty tables
+    static final long MAP = 240;
+    static final long MAP_ENTRY = 40;
+    // A node of a channel's linked queue
+    static final long CHANNEL_ENTRY = 24;
+    // A boxed number, arrays hold numbers unboxed until they take anything else
+    static final long NUMBER = 16;
+
+    private final AtomicLong remaining;
+
+    HeapQuota(long limit) {
+        if (limit < 1) throw new IllegalArgumentException("Heap quota must be at least 1 byte.");
+        this.remaining = new AtomicLong(limit);
+    }
+
+    // Strings are assumed to be Latin-1, one byte a character
+    static long string(int length) {
+        return 40 + length;
+    }
+
+    // Elements are counted as 8 bytes, the size of a double or a reference with its object
+    static long array(int length) {
+        return 16 + 8L * length;
+    }
+
+    // An array of references with every element a number of its own
+    static long boxed(int length) {
+        return array(length) + NUMBER * length;
+    }
+
+    /*
+     * At least needed bytes and up to a share more, 0 when fewer than needed are left
+     */
+    long take(long needed) {
+        long left;
+        long share;
+        do {
+            left = remaining.get();
+            if (left < needed) return 0;
+            share = Math.min(left, needed + SHARE);
+        } while (!remaining.compareAndSet(left, left - share));
+        return share;
+    }
+
+    // For data that is gone for sure, like a value received from a channel
+    void refund(long bytes) {
+        remaining.addAndGet(bytes);
+    }
+
+    // Whether bytes are left, without taking them
+    boolean has(long bytes) {
+        return remaining.get() >= bytes;
+    }
+}
@@ -0,0 +1,414 @@
+package tree_walk_interpreter;
+
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+ * Attaches probes to the nodes of a resolved program, for tools like coverage or a debugger
+ * A probe goes on a node by wrapping it in an Expr.Wrapper or Stmt.Wrapper
+ * that takes the node's place in its parent, so the interpreter's visitors stay
+ * as they are and nodes without probes run with no check at all.
+ * Attaching, detaching and a probe saying it is done with a node all work on
+ * a running program: they only put back nodes that were already there or store
+ * new wrappers, whose node and probe are final, after a release fence, so
+ * another thread sees either the old slot or the new one, never a half-built
+ * wrapper. A thread already inside a node keeps running what it found there,
+ * so a new probe starts firing on the next time through, and a removed one may
+ * fire a few more times. Swaps are serialized on the class.
+ * Function bodies that --lazy hasn't parsed yet are left alone, and the
+ * superclass of a class and the methods themselves can't be wrapped, only
+ * what is inside them.
+ */
+final class Instrumentation {
+    /*
+     * Called on the thread running the node, from every thread that runs it
+     */
+    interface Probe {
+        default void enter(Object node) {}
+
+        // Only for expressions, with what the node evaluated to
+        default void value(Expr node, Object value) {}
+
+        // Also when the node throws, including a return unwinding through it
+        default void exit(Object node) {}
+
+        // Asked after exit, true takes this probe off the node for good
+        default boolean done(Object node) {
+            return false;
+        }
+    }
+
+    /*
+     * Undoes one attach
+     */
+    static final class Binding {
+        private final List<Stmt> program;
+        private final Set<Probe> probes;
+
+        private Binding(List<Stmt> program, Set<Probe> probes) {
+            this.program = program;
+            this.probes = probes;
+        }
+
+        void detach() {
+            synchronized (Instrumentation.class) {
+                new Rewriter(null, probes, null).program(program);
+            }
+        }
+    }
+
+    private Instrumentation() {}
+
+    /*
+     * Wraps every Stmt and Expr in program that nodes accepts, each probe gets its own
+     * wrapper, so several probes can sit on one node and detach independently
+     */
+    static Binding attach(List<Stmt> program, Predicate<Object> nodes, Probe probe) {
+        return attach(program, node -> nodes.test(node) ? probe : null);
+    }
+
+    /*
+     * Wraps each node in the probe probes returns for it, none for null
+     * A node is offered before its children, so a probe factory can tell what
+     * a child is to its parent, like the condition of an if.
+     */
+    static Binding attach(List<Stmt> program, Function<Object, Probe> probes) {
+        Set<Probe> attached = Collections.newSetFromMap(new IdentityHashMap<>());
+        synchronized (Instrumentation.class) {
+            new Rewriter(probes, attached, null).program(program);
+        }
+        return new Binding(program, attached);
+    }
+
+    // The node under any wrappers, for code that looks at what kind of node a child is
+    static Expr unwrap(Expr expr) {
+        while (expr instanceof Expr.Wrapper) expr = ((Expr.Wrapper)expr).node;
+        return expr;
+    }
+
+    static Stmt unwrap(Stmt stmt) {
+        while (stmt instanceof Stmt.Wrapper) stmt = ((Stmt.Wrapper)stmt).node;
+        return stmt;
+    }
+
+    /*
+     * Takes wrapper out of its slot, for a probe that is done
+     * Only the wrapper's parent is rewritten, so it costs the same in any size of program.
+     */
+    static void remove(Expr.Wrapper wrapper) {
+        synchronized (Instrumentation.class) {
+            new Rewriter(null, null, wrapper).children(wrapper.parent);
+        }
+    }
+
+    static void remove(Stmt.Wrapper wrapper) {
+        synchronized (Instrumentation.class) {
+            new Rewriter(null, null, wrapper).children(wrapper.parent);
+        }
+    }
+
+    /*
+     * Walks the tree putting each child back after rewriting it
+     * With probes it wraps and collects what it attached in attached,
+     * with only attached it removes the wrappers of those probes,
+     * and with a target it only looks at one node's children to take that wrapper out.
+     * The wrappers stacked in one slot all have the node or list holding the slot
+     * as their parent. A wrapper is never changed once it is in the tree, when one
+     * under it goes, the ones above are copied.
+     */
+    private static class Rewriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Function<Object, Probe> probes;
+        private final Set<Probe> attached;
+        private final Object target;
+        // Node or list the children being rewritten belong to
+        private Object parent;
+
+        Rewriter(Function<Object, Probe> probes, Set<Probe> attached, Object target) {
+            this.probes = probes;
+            this.attached = attached;
+            this.target = target;
+        }
+
+        void program(List<Stmt> program) {
+            parent = program;
+            statements(program);
+        }
+
+        @SuppressWarnings("unchecked")
+        void children(Object node) {
+            parent = node;
+            if (node instanceof List) {
+                statements((List<Stmt>)node);
+            } else if (node instanceof Stmt) {
+                ((Stmt)node).accept(this);
+            } else {
+                ((Expr)node).accept(this);
+            }
+        }
+
+        void statements(List<Stmt> statements) {
+            for (int i = 0; i < statements.size(); i++) {
+                Stmt statement = statements.get(i);
+                Stmt rewritten = stmt(statement);
+                if (rewritten != statement) statements.set(i, rewritten);
+            }
+        }
+
+        // The new contents of a slot holding stmt
+        private Stmt stmt(Stmt stmt) {
+            if (stmt == null) return null;
+            // Before the children, so probes are offered parents first
+            Probe probe = probe(unwrap(stmt));
+            Stmt rewritten = stack(stmt);
+            if (probe == null) return rewritten;
+            return publish(new Stmt.Wrapper(rewritten, probe));
+        }
+
+        private Expr expr(Expr expr) {
+            if (expr == null) return null;
+            Probe probe = probe(unwrap(expr));
+            Expr rewritten = stack(expr);
+            if (probe == null) return rewritten;
+            return publish(new Expr.Wrapper(rewritten, probe));
+        }
+
+        // Rewrites the wrappers stacked on a node, and the node's children unless only removing target
+        private Stmt stack(Stmt stmt) {
+            if (!(stmt instanceof Stmt.Wrapper)) {
+                if (target == null) visit(stmt);
+                return stmt;
+            }
+            Stmt.Wrapper wrapper = (Stmt.Wrapper)stmt;
+            Stmt node = stack(wrapper.node);
+            if (removes(wrapper, wrapper.probe)) return node;
+            if (node != wrapper.node) return publish(new Stmt.Wrapper(node, wrapper.probe));
+            wrapper.parent = parent;
+            return wrapper;
+        }
+
+        private Expr stack(Expr expr) {
+            if (!(expr instanceof Expr.Wrapper)) {
+                if (target == null) visit(expr);
+                return expr;
+            }
+            Expr.Wrapper wrapper = (Expr.Wrapper)expr;
+            Expr node = stack(wrapper.node);
+            if (removes(wrapper, wrapper.probe)) return node;
+            if (node != wrapper.node) return publish(new Expr.Wrapper(node, wrapper.probe));
+            wrapper.parent = parent;
+            return wrapper;
+        }
+
+        private boolean removes(Object wrapper, Probe probe) {
+            if (target != null) return wrapper == target;
+            return probes == null && attached.contains(probe);
+        }
+
+        /*
+         * Makes the wrapper's writes visible before the slot write that shares it
+         * node and probe are final already, this covers line and id, which it inherits
+         */
+        private Stmt.Wrapper publish(Stmt.Wrapper wrapper) {
+            wrapper.parent = parent;
+            VarHandle.releaseFence();
+            return wrapper;
+        }
+
+        private Expr.Wrapper publish(Expr.Wrapper wrapper) {
+            wrapper.parent = parent;
+            VarHandle.releaseFence();
+            return wrapper;
+        }
+
+        private void visit(Stmt stmt) {
+            Object outer = parent;
+            parent = stmt;
+            stmt.accept(this);
+            parent = outer;
+        }
+
+        private void visit(Expr expr) {
+            Object outer = parent;
+            parent = expr;
+            expr.accept(this);
+            parent = outer;
+        }
+
+        private Probe probe(Object node) {
+            if (probes == null) return null;
+            Probe probe = probes.apply(node);
+            if (probe != null) attached.add(probe);
+            return probe;
+        }
+
+        private void function(Stmt.Function function) {
+            List<Stmt> body = function.body;
+            if (body == null) body = function.lazyBody.parsed();
+            if (body != null) statements(body);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            expr.value = expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            expr.left = expr(expr.left);
+            expr.right = expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            expr.callee = expr(expr.callee);
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                Expr argument = expr.arguments.get(i);
+                Expr rewritten = expr(argument);
+                if (rewritten != argument) expr.arguments.set(i, rewritten);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            expr.object = expr(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            expr.expression = expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            expr.object = expr(expr.object);
+            expr.index = expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            expr.object = expr(expr.object);
+            expr.index = expr(expr.index);
+            expr.value = expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            expr.left = expr(expr.left);
+            expr.right = expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            expr.object = expr(expr.object);
+            expr.value = expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            expr.right = expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        // Stacks are rewritten whole by stack(), this walk never enters a wrapper
+        @Override
+        public Void visitWrapperExpr(Expr.Wrapper expr) {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            for (Stmt.Function method : stmt.methods) function(method);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            stmt.expression = expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            function(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            stmt.condition = expr(stmt.condition);
+            stmt.thenBranch = stmt(stmt.thenBranch);
+            stmt.elseBranch = stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            stmt.expression = expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            stmt.value = expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            stmt.condition = expr(stmt.condition);
+            stmt.body = stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            stmt.initializer = expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWrapperStmt(Stmt.Wrapper stmt) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -9,42 +9,134 @@ import java.util.Map;
  * The interpreter
  */
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    private final OutputSink out;
+    // Set for parallelMap and parallelReduce workers, which must not write to anything shared
+    private final boolean isolated;
+    // This thread's calls for --profile, null when not profiling
+    private final Profiler profiler;
+    private final Profiler.Stack profile;
+    // This thread's allocations for --allocations, null when not counting them
+    private final AllocationProfiler allocationProfiler;
+    final AllocationProfiler.Counts allocations;
+    // Budget for loop iterations and calls, null when unmetered
+    private final Fuel fuel;
+    // Units left in this thread's slice of fuel
+    private long fuelLeft;
+    // When this thread last got its carrier back, see Fuel.yieldIfDue
+    private long timesliceStart = System.nanoTime();
+    // Cap on what the script allocates, null when there is none
+    private final HeapQuota heapQuota;
+    // Bytes left in this thread's share of the quota
+    private long heapLeft;
+    // The frame the last method looked up on an instance was bound to, see visitCallExpr
+    Environment freshBinding;
+    // What open() may open and what is open, null when scripts can't open files
+    private final ScriptFiles files;
 
-    // Native functions
     Interpreter() {
-        globals.define("clock", new InterpreterCallable() {
-            @Override
-            public int arity() {return 0; }
-            
-            @Override
-            public Object call(Interpreter interpreter, List<Object>arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+        this(OutputSink.STANDARD);
+    }
+
+    Interpreter(OutputSink out) {
+        this(out, null, null, null, null, new ScriptFiles(null));
+    }
+
+    Interpreter(OutputSink out, Profiler profiler, AllocationProfiler allocationProfiler, Fuel fuel, HeapQuota heapQuota,
+                ScriptFiles files) {
+        this.globals = new Environment();
+        this.environment = globals;
+        this.out = out;
+        this.isolated = false;
+        this.profiler = profiler;
+        this.profile = profiler == null ? null : profiler.stack();
+        this.allocationProfiler = allocationProfiler;
+        this.allocations = allocationProfiler == null ? null : allocationProfiler.counts();
+        this.fuel = fuel;
+        this.fuelLeft = fuel == null ? Fuel.UNLIMITED : 0;
+        this.heapQuota = heapQuota;
+        this.heapLeft = heapQuota == null ? HeapQuota.UNLIMITED : 0;
+        this.files = files;
+        InterpreterMetrics.register();
+        Natives.define(globals, files);
+    }
 
-            @Override
-            public String toString() { return "<native fn>";}
-        });
+    /*
+     * For a spawned thread, shares the parent's globals and output
+     * but keeps its own current environment
+     */
+    Interpreter(Interpreter parent) {
+        this(parent, false);
+    }
+
+    // Made on the thread that will run it, so it profiles into that thread's stack
+    Interpreter(Interpreter parent, boolean isolated) {
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.out = parent.out.forThread();
+        this.isolated = isolated;
+        this.profiler = parent.profiler;
+        this.profile = profiler == null ? null : profiler.stack();
+        this.allocationProfiler = parent.allocationProfiler;
+        this.allocations = allocationProfiler == null ? null : allocationProfiler.counts();
+        this.fuel = parent.fuel;
+        this.fuelLeft = fuel == null ? Fuel.UNLIMITED : 0;
+        this.heapQuota = parent.heapQuota;
+        this.heapLeft = heapQuota == null ? HeapQuota.UNLIMITED : 0;
+        this.files = parent.files;
     }
 
     void interpret(List<Stmt> statements) {
+        RuntimeError error;
+        try {
+            error = run(statements);
+        } finally {
+            // Output goes out before the error, and before the REPL reads the next line
+            out.flush();
+        }
+        if (error != null) Main.runtimeError(error);
+    }
+
+    // Called where another thread may see what this one did, so their output keeps that order
+    void flushOutput() {
+        out.flush();
+    }
+
+    /*
+     * Runs the statements and returns the error that stopped them, or null
+     */
+    RuntimeError run(List<Stmt> statements) {
+        RuntimeError error = null;
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
-        } catch (RuntimeError error) {
-            Main.runtimeError(error);
+        } catch (RuntimeError thrown) {
+            error = thrown;
         }
+        // Like the output, what the script wrote to files it didn't close goes out at the end
+        if (files != null) {
+            try {
+                files.flush();
+            } catch (RuntimeError thrown) {
+                // No statement to point at, the end of the script is where it failed
+                if (error == null) error = new RuntimeError(new Token(TokenType.EOF, "", null, 0), thrown.getMessage());
+            }
+        }
+        if (error == null) return null;
+        ScriptEvents.runtimeError(error);
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.runtimeErrors.increment();
+        return error;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
         
-        Integer distance = locals.get(expr);
-        if (distance != null) {
+        int distance = expr.depth;
+        if (isolated) checkWrite(distance != -1 ? environment.ancestor(distance) : globals, expr.name);
+        if (distance != -1) {
             environment.assignAt(distance, expr.name, value);
         } else {
             globals.assign(expr.name, value);
@@ -61,24 +153,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left <= (double)right;
             case MINUS:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 checkNumberOperand(expr.operator, right);
                 return (double)left - (double)right;
             case PLUS:
                 if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                    if (allocations != null) allocations.string();
+                    // Strings are charged before the copy, a number or a name on the other side after it
+                    int length = (left instanceof String ? ((String)left).length() : 0)
+                        + (right instanceof String ? ((String)right).length() : 0);
+                    allocate(HeapQuota.string(length), expr.operator);
+                    StringBuilder text = new StringBuilder();
+                    appendTo(text, left);
+                    appendTo(text, right);
+                    allocate(text.length() - length, expr.operator);
+                    return text.toString();
                 }
 
                 if (left instanceof Double && right instanceof Double) {
@@ -87,13 +188,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
             case MODULO:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left % (double) right;
             case SLASH:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left / (double)right;
             case STAR:
-                checkNumberOperands(null, left, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left * (double)right;
         }
 
@@ -104,6 +205,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
+        // A method looked up just to be called is bound for this call alone
+        Environment binding = null;
+        if ((expr.callee instanceof Expr.Get || expr.callee instanceof Expr.Super)
+                && callee instanceof InterpreterFunction && ((InterpreterFunction)callee).closure == freshBinding) {
+            binding = freshBinding;
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
@@ -118,14 +225,41 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (arguments.size() != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+
+        if (--fuelLeft < 0) refuel(expr.paren);
+        // The callee's statements move the allocation line, what this statement does after the call is still its own
+        int line = allocations != null ? allocations.line() : 0;
+        if (profile != null) profile.enter(callee, expr);
+        if (InterpreterMetrics.ENABLED) {
+            InterpreterMetrics.METRICS.calls.increment();
+            InterpreterMetrics.METRICS.callDepth.increment();
+        }
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            // Natives throw without a token, point them at this call.
+            if (error.token != null) throw error;
+            throw new RuntimeError(expr.paren, error.getMessage());
+        } finally {
+            if (profile != null) profile.exit();
+            if (allocations != null) allocations.line(line);
+            if (binding != null && !binding.isCaptured()) free(HeapQuota.BOUND_METHOD);
+            if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.callDepth.decrement();
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof InterpreterInstance) {
-            return ((InterpreterInstance) object).get(expr.name);
+            freshBinding = null;
+            return ((InterpreterInstance) object).get(this, expr.name);
+        }
+
+        if (object instanceof NativeObject) {
+            Object property = ((NativeObject)object).get(expr.name.symbol);
+            if (property != null) return property;
+            throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties");
@@ -136,6 +270,49 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof InterpreterMap) {
+            return ((InterpreterMap)object).get(index);
+        }
+
+        if (!(object instanceof InterpreterArray)) {
+            throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+        }
+
+        InterpreterArray array = (InterpreterArray)object;
+        return array.get(array.checkIndex(index, expr.bracket));
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof InterpreterMap) {
+            InterpreterMap map = (InterpreterMap)object;
+            if (index == null) throw new RuntimeError(expr.bracket, "Map keys can't be noll.");
+            Object value = evaluate(expr.value);
+            checkWrite(map, expr.bracket);
+            if (map.set(index, value)) allocate(HeapQuota.MAP_ENTRY, expr.bracket);
+            return value;
+        }
+
+        if (!(object instanceof InterpreterArray)) {
+            throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+        }
+
+        InterpreterArray array = (InterpreterArray)object;
+        int slot = array.checkIndex(index, expr.bracket);
+        Object value = evaluate(expr.value);
+        checkWrite(array, expr.bracket);
+        array.set(this, slot, value, expr.bracket);
+        return value;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -163,28 +340,29 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((InterpreterInstance)object).set(expr.name, value);
+        checkWrite((InterpreterInstance)object, expr.name);
+        if (((InterpreterInstance)object).set(expr.name, value)) allocate(HeapQuota.FIELD, expr.name);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        InterpreterClass superclass = (InterpreterClass)environment.getAt(distance, "super");
+        int distance = expr.depth;
+        InterpreterClass superclass = (InterpreterClass)environment.getAt(distance, Symbol.SUPER);
 
-        InterpreterInstance object = (InterpreterInstance)environment.getAt(distance - 1, "this");
+        InterpreterInstance object = (InterpreterInstance)environment.getAt(distance - 1, Symbol.THIS);
 
-        InterpreterFunction method = superclass.findMethod(expr.method.lexeme);
+        InterpreterFunction method = superclass.findMethod(expr.method.symbol);
 
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(object);
+        return method.bind(this, object, expr.method);
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth);
     }
 
     @Override
@@ -204,11 +382,31 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth);
+    }
+
+    // A node with a probe from Instrumentation
+    @Override
+    public Object visitWrapperExpr(Expr.Wrapper expr) {
+        Instrumentation.Probe probe = expr.probe;
+        Expr node = expr.node;
+        probe.enter(node);
+        try {
+            Object value = evaluate(node);
+            probe.value(node, value);
+            return value;
+        } finally {
+            probe.exit(node);
+            if (probe.done(node)) Instrumentation.remove(expr);
+        }
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        if (allocations != null) allocations.environment();
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.environments.increment();
+        // Like the while, a block has no token to point an error at until one is needed
+        if ((heapLeft -= HeapQuota.ENVIRONMENT) < 0) reserveHeap(new Token(TokenType.LEFT_BRACE, "{", null, stmt.line));
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
@@ -222,17 +420,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
+        environment.define(stmt.name.symbol, null);
 
         if (stmt.superclass != null) {
+            if (allocations != null) allocations.environment();
+            if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.environments.increment();
+            allocate(HeapQuota.ENVIRONMENT + HeapQuota.VARIABLE, stmt.name);
             environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment.define(Symbol.SUPER, superclass);
         }
 
-        Map<String, InterpreterFunction> methods = new HashMap<>();
+        Map<Symbol, InterpreterFunction> methods = new HashMap<>();
+        environment.capture();
         for (Stmt.Function method : stmt.methods) {
-            InterpreterFunction function = new InterpreterFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            if (allocations != null) allocations.closure();
+            allocate(HeapQuota.CLOSURE, method.name);
+            InterpreterFunction function = new InterpreterFunction(method, environment, method.name.symbol == Symbol.INIT);
+            methods.put(method.name.symbol, function);
         }
 
         InterpreterClass klass = new InterpreterClass(stmt.name.lexeme, (InterpreterClass)superclass, methods);
@@ -253,8 +457,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (allocations != null) allocations.closure();
+        allocate(HeapQuota.CLOSURE + HeapQuota.VARIABLE, stmt.name);
+        environment.capture();
         InterpreterFunction function = new InterpreterFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        environment.define(stmt.name.symbol, function);
         return null;
     }
 
@@ -271,7 +478,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        if (value instanceof Double) {
+            out.println((double)value);
+        } else {
+            out.println(stringify(value));
+        }
         return null;
     }
 
@@ -287,10 +498,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            // The while has no token of its own, only made up when the budget runs out
+            if (--fuelLeft < 0) refuel(new Token(TokenType.WHILE, "while", null, stmt.line));
         }
         return null;
     }   
 
+    @Override
+    public Void visitWrapperStmt(Stmt.Wrapper stmt) {
+        Instrumentation.Probe probe = stmt.probe;
+        Stmt node = stmt.node;
+        probe.enter(node);
+        try {
+            // Not execute(), it has already counted the wrapper as this statement
+            node.accept(this);
+        } finally {
+            probe.exit(node);
+            if (probe.done(node)) Instrumentation.remove(stmt);
+        }
+        return null;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
@@ -298,7 +526,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        allocate(HeapQuota.VARIABLE, stmt.name);
+        environment.define(stmt.name.symbol, value);
         return null;
     }
 
@@ -309,12 +538,54 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    // Takes the next slice of fuel for the unit just counted, and lets other runs in when it is their turn
+    private void refuel(Token at) {
+        long slice = fuel.take();
+        if (slice == 0) throw new RuntimeError(at, "Out of fuel.");
+        fuelLeft = slice - 1;
+        timesliceStart = Fuel.yieldIfDue(timesliceStart);
+    }
+
+    /*
+     * Charges bytes to the heap quota, at is where the error points
+     * Natives and calls pass null and get the token of the call.
+     */
+    void allocate(long bytes, Token at) {
+        if ((heapLeft -= bytes) < 0) reserveHeap(at);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // Takes enough of the quota to cover what heapLeft is short
+    private void reserveHeap(Token at) {
+        long share = heapQuota.take(-heapLeft);
+        if (share == 0) throw new RuntimeError(at, "Heap quota exceeded.");
+        heapLeft += share;
+    }
+
+    // Gives back bytes this interpreter charged, for data that is gone when its scope ends
+    void free(long bytes) {
+        // Without a quota heapLeft stays at its cap rather than overflow
+        if (heapQuota != null) heapLeft += bytes;
+    }
+
+    // Gives bytes charged by any thread of the run back to the quota
+    void release(long bytes) {
+        if (heapQuota != null) heapQuota.refund(bytes);
+    }
+
+    /*
+     * Refuses scratch data bigger than what is left of the quota, without charging it
+     * For buffers that don't outlive the native using them, but that would take
+     * the JVM's memory before they could become garbage if they were this big.
+     */
+    void checkHeap(long bytes, Token at) {
+        if (bytes > heapLeft && !heapQuota.has(bytes - heapLeft)) throw new RuntimeError(at, "Heap quota exceeded.");
+    }
+
+    private void execute(Stmt stmt) {
+        if (profile != null) profile.statement(stmt.line);
+        if (allocations != null) allocations.line(stmt.line);
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.statements.increment();
+        stmt.accept(this);
     }
 
     void executeBlock(List<Stmt> statements, Environment environment) {
@@ -327,10 +598,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } finally {
             this.environment = previous;
+            // Both callers charged the frame, it is garbage now unless a closure holds it
+            if (!environment.isCaptured()) free(HeapQuota.ENVIRONMENT + HeapQuota.VARIABLE * environment.size());
         }
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -343,20 +616,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    // Workers of the data-parallel natives only get to write to what they created themselves
+    void checkWrite(Shareable target, Token token) {
+        if (isolated && target.isShared()) {
+            throw new RuntimeError(token, "A function run in parallel can't modify shared state.");
+        }
+    }
+
+    String stringify(Object object) {
         if (object == null) return "noll";
 
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+        if (object instanceof Double) return Numbers.format((double)object);
 
         return object.toString();
     }
 
+    // stringify, written straight into text
+    private void appendTo(StringBuilder text, Object object) {
+        if (object instanceof Double) {
+            Numbers.append(text, (double)object);
+        } else if (object instanceof String) {
+            text.append((String)object);
+        } else {
+            text.append(stringify(object));
+        }
+    }
+
     private void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number");
@@ -368,10 +653,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if  (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int distance) {
+        if  (distance != -1) {
+            return environment.getAt(distance, name.symbol);
         } else {
             return globals.get(name);
         }
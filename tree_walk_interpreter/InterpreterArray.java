@@ -0,0 +1,197 @@
+package tree_walk_interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Fixed length array, made by the array(length, fill) native and indexed with a[i]
+ * Storage follows the contents: all numbers are kept in a double[], all booleans
+ * in a boolean[], anything else in an Object[]. The first write that doesn't fit
+ * moves the elements to an Object[] for good, it never narrows back.
+ * Like an instance it is only locked once it is shared between threads.
+ */
+class InterpreterArray implements NativeObject, Shareable {
+    private static final Symbol LENGTH = Symbol.intern("length");
+    private static final Symbol GET = Symbol.intern("get");
+    private static final Symbol SET = Symbol.intern("set");
+
+    private static final NativeMethod<InterpreterArray> GET_METHOD = new NativeMethod<>(1,
+        (interpreter, array, arguments) -> array.get(array.checkIndex(arguments.get(0), null)));
+    private static final NativeMethod<InterpreterArray> SET_METHOD = new NativeMethod<>(2, (interpreter, array, arguments) -> {
+        interpreter.checkWrite(array, null);
+        array.set(interpreter, array.checkIndex(arguments.get(0), null), arguments.get(1), null);
+        return arguments.get(1);
+    });
+
+    private final int length;
+    // Exactly one of these holds the elements
+    private double[] numbers;
+    private boolean[] booleans;
+    private Object[] objects;
+    private volatile boolean shared = false;
+
+    private InterpreterArray(int length, double[] numbers, boolean[] booleans, Object[] objects) {
+        this.length = length;
+        this.numbers = numbers;
+        this.booleans = booleans;
+        this.objects = objects;
+    }
+
+    static InterpreterArray filled(int length, Object value) {
+        if (value instanceof Double) {
+            double[] numbers = new double[length];
+            Arrays.fill(numbers, (double)value);
+            return new InterpreterArray(length, numbers, null, null);
+        }
+        if (value instanceof Boolean) {
+            boolean[] booleans = new boolean[length];
+            Arrays.fill(booleans, (boolean)value);
+            return new InterpreterArray(length, null, booleans, null);
+        }
+        Object[] objects = new Object[length];
+        Arrays.fill(objects, value);
+        return new InterpreterArray(length, null, null, objects);
+    }
+
+    // Takes the narrowest storage that holds all of values
+    static InterpreterArray of(Object[] values) {
+        boolean allNumbers = true;
+        boolean allBooleans = true;
+        for (Object value : values) {
+            allNumbers &= value instanceof Double;
+            allBooleans &= value instanceof Boolean;
+        }
+
+        if (allNumbers) {
+            double[] numbers = new double[values.length];
+            for (int i = 0; i < values.length; i++) numbers[i] = (double)values[i];
+            return new InterpreterArray(values.length, numbers, null, null);
+        }
+        if (allBooleans) {
+            boolean[] booleans = new boolean[values.length];
+            for (int i = 0; i < values.length; i++) booleans[i] = (boolean)values[i];
+            return new InterpreterArray(values.length, null, booleans, null);
+        }
+        return new InterpreterArray(values.length, null, null, values);
+    }
+
+    static InterpreterArray ofNumbers(double[] numbers) {
+        return new InterpreterArray(numbers.length, numbers, null, null);
+    }
+
+    int length() {
+        return length;
+    }
+
+    // The index as an int, token is where to report a bad one
+    int checkIndex(Object index, Token token) {
+        if (!(index instanceof Double) || (double)index != Math.floor((double)index)) {
+            throw new RuntimeError(token, "Array index must be a whole number.");
+        }
+        double value = (double)index;
+        if (value < 0 || value >= length) {
+            throw new RuntimeError(token, "Array index " + (long)value + " out of bounds for length " + length + ".");
+        }
+        return (int)value;
+    }
+
+    Object get(int index) {
+        if (shared) {
+            synchronized (this) {
+                return load(index);
+            }
+        }
+        return load(index);
+    }
+
+    // Storing anything but a number in an array of numbers boxes them all, which interpreter is charged for
+    void set(Interpreter interpreter, int index, Object value, Token at) {
+        if (shared) {
+            Sharing.share(value);
+            synchronized (this) {
+                store(interpreter, index, value, at);
+            }
+        } else {
+            store(interpreter, index, value, at);
+        }
+    }
+
+    // A boxed copy of the elements, for natives that hand them to other threads
+    Object[] snapshot() {
+        if (shared) {
+            synchronized (this) {
+                return copy();
+            }
+        }
+        return copy();
+    }
+
+    private Object load(int index) {
+        if (numbers != null) return numbers[index];
+        if (booleans != null) return booleans[index];
+        return objects[index];
+    }
+
+    private void store(Interpreter interpreter, int index, Object value, Token at) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            // The Object[] takes the place of the double[], which was charged already
+            interpreter.allocate(HeapQuota.NUMBER * length, at);
+            generalize();
+        } else if (booleans != null) {
+            if (value instanceof Boolean) {
+                booleans[index] = (boolean)value;
+                return;
+            }
+            generalize();
+        }
+        objects[index] = value;
+    }
+
+    private void generalize() {
+        objects = copy();
+        numbers = null;
+        booleans = null;
+    }
+
+    private Object[] copy() {
+        if (objects != null) return objects.clone();
+        Object[] boxed = new Object[length];
+        for (int i = 0; i < length; i++) boxed[i] = load(i);
+        return boxed;
+    }
+
+    @Override
+    public Object get(Symbol name) {
+        if (name == LENGTH) return (double)length;
+        if (name == GET) return GET_METHOD.bind(this);
+        if (name == SET) return SET_METHOD.bind(this);
+        return null;
+    }
+
+    @Override
+    public boolean markShared() {
+        if (shared) return false;
+        shared = true;
+        return true;
+    }
+
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public Iterable<Object> sharedValues() {
+        // Numbers and booleans can't reach anything mutable
+        return objects != null ? Arrays.asList(objects) : List.of();
+    }
+
+    @Override
+    public String toString() {
+        return "<array>";
+    }
+}
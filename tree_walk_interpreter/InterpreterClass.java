@@ -9,15 +9,15 @@ import java.util.Map;
 class InterpreterClass implements InterpreterCallable {
     final String name;
     final InterpreterClass superclass;
-    private final Map<String, InterpreterFunction> methods;
+    final Map<Symbol, InterpreterFunction> methods;
 
-    InterpreterClass(String name, InterpreterClass superclass, Map<String, InterpreterFunction> methods) {
+    InterpreterClass(String name, InterpreterClass superclass, Map<Symbol, InterpreterFunction> methods) {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
     }
 
-    InterpreterFunction findMethod(String name) {
+    InterpreterFunction findMethod(Symbol name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
         }
@@ -36,10 +36,21 @@ class InterpreterClass implements InterpreterCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (ScriptEvents.enabled()) return ScriptEvents.instantiation(this, interpreter, arguments);
+        return instantiate(interpreter, arguments);
+    }
+
+    Object instantiate(Interpreter interpreter, List<Object> arguments) {
+        interpreter.allocate(HeapQuota.INSTANCE, null);
         InterpreterInstance instance = new InterpreterInstance(this);
-        InterpreterFunction initializer = findMethod("init");
+        if (interpreter.allocations != null) interpreter.allocations.instance(instance);
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.instances.increment();
+        InterpreterFunction initializer = findMethod(Symbol.INIT);
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            InterpreterFunction bound = initializer.bind(interpreter, instance, null);
+            bound.call(interpreter, arguments);
+            // Bound for this call alone, like a method called where it is looked up
+            if (!bound.closure.isCaptured()) interpreter.free(HeapQuota.BOUND_METHOD);
         }
 
         return instance;
@@ -47,7 +58,7 @@ class InterpreterClass implements InterpreterCallable {
 
     @Override
     public int arity() {
-        InterpreterFunction initializer = findMethod("init");
+        InterpreterFunction initializer = findMethod(Symbol.INIT);
         if (initializer == null) return 0;
         return initializer.arity();
     }
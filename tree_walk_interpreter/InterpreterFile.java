@@ -0,0 +1,258 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * An open file, made by the open(path, mode) native
+ * Reads and writes go through one 64 KB buffer over a FileChannel, so a script
+ * can stream a file of any size in constant memory. readLine() only decodes
+ * the bytes of the line it returns. Writes are buffered until the buffer is
+ * full or the file is closed, so close() is what makes them land.
+ */
+class InterpreterFile implements NativeObject {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final Symbol READ_LINE = Symbol.intern("readLine");
+    private static final Symbol READ = Symbol.intern("read");
+    private static final Symbol WRITE = Symbol.intern("write");
+    private static final Symbol WRITE_LINE = Symbol.intern("writeLine");
+    private static final Symbol CLOSE = Symbol.intern("close");
+
+    private final ScriptFiles owner;
+    // As the script gave it, for messages
+    private final String path;
+    private final FileChannel channel;
+    private final boolean writing;
+    // Holds unread bytes between position and limit when reading, pending bytes when writing
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // The start of a line that ran past the end of the buffer
+    private byte[] partial = new byte[0];
+    private boolean closed = false;
+
+    private final NativeFunction readLine;
+    private final NativeFunction read;
+    private final NativeFunction write;
+    private final NativeFunction writeLine;
+    private final NativeFunction close;
+
+    InterpreterFile(ScriptFiles owner, Path file, String path, String mode) {
+        OpenOption[] options;
+        switch (mode) {
+            case "r": options = new OpenOption[] {StandardOpenOption.READ}; break;
+            case "w": options = new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING}; break;
+            case "a": options = new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND}; break;
+            default: throw new RuntimeError(null, "File mode must be \"r\", \"w\" or \"a\".");
+        }
+
+        this.owner = owner;
+        this.path = path;
+        this.writing = !mode.equals("r");
+        try {
+            channel = FileChannel.open(file, options);
+        } catch (IOException | RuntimeException error) {
+            throw new RuntimeError(null, "Could not open '" + path + "': " + reason(error));
+        }
+        // Reading starts with nothing buffered
+        if (!writing) buffer.flip();
+
+        readLine = new NativeFunction(0, (interpreter, arguments) -> readLine(interpreter));
+        read = new NativeFunction(1, (interpreter, arguments) -> read(interpreter, arguments.get(0)));
+        write = new NativeFunction(1, (interpreter, arguments) -> {
+            write(interpreter.stringify(arguments.get(0)));
+            return null;
+        });
+        writeLine = new NativeFunction(1, (interpreter, arguments) -> {
+            write(interpreter.stringify(arguments.get(0)) + "\n");
+            return null;
+        });
+        close = new NativeFunction(0, (interpreter, arguments) -> {
+            close();
+            return null;
+        });
+    }
+
+    /*
+     * The next line without its line ending, noll at the end of the file
+     * The line is charged to interpreter's heap quota like any other string, and
+     * checked against what is left of it before it grows.
+     */
+    synchronized String readLine(Interpreter interpreter) {
+        checkOpen(false);
+        int length = 0;
+        while (true) {
+            byte[] bytes = buffer.array();
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                if (bytes[i] != '\n') continue;
+                interpreter.allocate(HeapQuota.string(length + i - start), null);
+                buffer.position(i + 1);
+                if (length == 0) return decodeLine(bytes, start, i - start);
+                partial = append(partial, length, bytes, start, i - start);
+                return decodeLine(partial, 0, length + i - start);
+            }
+
+            interpreter.checkHeap(HeapQuota.string(length + limit - start), null);
+            partial = append(partial, length, bytes, start, limit - start);
+            length += limit - start;
+            if (!fill()) {
+                if (length == 0) return null;
+                interpreter.allocate(HeapQuota.string(length), null);
+                return decodeLine(partial, 0, length);
+            }
+        }
+    }
+
+    /*
+     * Up to count bytes as an array of numbers from 0 to 255, noll at the end of the file
+     * interpreter is charged for the array as it grows, and given back what it
+     * didn't need.
+     */
+    synchronized InterpreterArray read(Interpreter interpreter, Object count) {
+        checkOpen(false);
+        if (!(count instanceof Double) || (double)count < 1 || (double)count != Math.floor((double)count)) {
+            throw new RuntimeError(null, "Byte count must be a positive whole number.");
+        }
+
+        int wanted = (int)Math.min((double)count, Integer.MAX_VALUE - 8);
+        // Grows as bytes arrive, so asking for more than the file holds costs nothing
+        int capacity = Math.min(wanted, BUFFER_SIZE);
+        interpreter.allocate(HeapQuota.array(capacity), null);
+        double[] values = new double[capacity];
+        int filled = 0;
+        while (filled < wanted) {
+            if (!buffer.hasRemaining() && !fill()) break;
+            if (filled == values.length) {
+                capacity = (int)Math.min((long)filled * 2, wanted);
+                interpreter.allocate(HeapQuota.array(capacity) - HeapQuota.array(filled), null);
+                values = Arrays.copyOf(values, capacity);
+            }
+            int take = Math.min(buffer.remaining(), values.length - filled);
+            byte[] bytes = buffer.array();
+            int start = buffer.position();
+            for (int i = 0; i < take; i++) values[filled++] = bytes[start + i] & 0xFF;
+            buffer.position(start + take);
+        }
+
+        if (filled == 0) {
+            interpreter.release(HeapQuota.array(values.length));
+            return null;
+        }
+        interpreter.release(HeapQuota.array(values.length) - HeapQuota.array(filled));
+        return InterpreterArray.ofNumbers(filled == values.length ? values : Arrays.copyOf(values, filled));
+    }
+
+    synchronized void write(String text) {
+        checkOpen(true);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (bytes.length > buffer.remaining()) drain();
+            if (bytes.length > buffer.capacity()) {
+                // Too big to be worth copying, hand it to the channel directly
+                ByteBuffer whole = ByteBuffer.wrap(bytes);
+                while (whole.hasRemaining()) channel.write(whole);
+            } else {
+                buffer.put(bytes);
+            }
+        } catch (IOException error) {
+            throw new RuntimeError(null, "Could not write '" + path + "': " + reason(error));
+        }
+    }
+
+    // Writes out the buffer of a file still open for writing
+    synchronized void flush() {
+        if (closed || !writing) return;
+        try {
+            drain();
+        } catch (IOException error) {
+            throw new RuntimeError(null, "Could not write '" + path + "': " + reason(error));
+        }
+    }
+
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        owner.closed(this);
+        try {
+            try {
+                if (writing) drain();
+            } finally {
+                channel.close();
+            }
+        } catch (IOException error) {
+            throw new RuntimeError(null, "Could not close '" + path + "': " + reason(error));
+        }
+    }
+
+    @Override
+    public Object get(Symbol name) {
+        if (name == READ_LINE) return readLine;
+        if (name == READ) return read;
+        if (name == WRITE) return write;
+        if (name == WRITE_LINE) return writeLine;
+        if (name == CLOSE) return close;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+
+    private void checkOpen(boolean forWriting) {
+        if (closed) throw new RuntimeError(null, "File '" + path + "' is closed.");
+        if (forWriting != writing) {
+            throw new RuntimeError(null, "File '" + path + "' was not opened for " + (forWriting ? "writing." : "reading."));
+        }
+    }
+
+    // Refills the read buffer, returns false at the end of the file
+    private boolean fill() {
+        try {
+            buffer.clear();
+            int count = channel.read(buffer);
+            buffer.flip();
+            return count > 0;
+        } catch (IOException error) {
+            throw new RuntimeError(null, "Could not read '" + path + "': " + reason(error));
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // NIO puts only the path in these messages
+    private static String reason(Exception error) {
+        if (error instanceof NoSuchFileException) return "no such file.";
+        if (error instanceof AccessDeniedException) return "permission denied.";
+        return error.getMessage();
+    }
+
+    private static String decodeLine(byte[] bytes, int start, int length) {
+        if (length > 0 && bytes[start + length - 1] == '\r') length--;
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    // Appends count bytes from source after the first length bytes of target, growing it if needed
+    private static byte[] append(byte[] target, int length, byte[] source, int start, int count) {
+        if (length + count > target.length) {
+            target = Arrays.copyOf(target, Math.max(length + count, target.length * 2));
+        }
+        System.arraycopy(source, start, target, length, count);
+        return target;
+    }
+}
@@ -3,8 +3,8 @@ package tree_walk_interpreter;
 import java.util.List;
 
 class InterpreterFunction implements InterpreterCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    final Environment closure;
 
     private final boolean isInitializer;
 
@@ -14,9 +14,17 @@ class InterpreterFunction implements InterpreterCallable{
         this.declaration = declaration;
     }
 
-    InterpreterFunction bind(InterpreterInstance instance) {
+    // at is where a heap quota error points, null inside a call
+    InterpreterFunction bind(Interpreter interpreter, InterpreterInstance instance, Token at) {
+        if (interpreter.allocations != null) {
+            interpreter.allocations.closure();
+            interpreter.allocations.environment();
+        }
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.environments.increment();
+        interpreter.allocate(HeapQuota.BOUND_METHOD, at);
         Environment environment = new Environment(closure);
-        environment.define("this", instance);
+        environment.define(Symbol.THIS, instance);
+        interpreter.freshBinding = environment;
         return new InterpreterFunction(declaration, environment, isInitializer);
     }
 
@@ -33,19 +41,30 @@ class InterpreterFunction implements InterpreterCallable{
     
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (ScriptEvents.enabled()) return ScriptEvents.functionCall(this, interpreter, arguments);
+        return invoke(interpreter, arguments);
+    }
+
+    Object invoke(Interpreter interpreter, List<Object> arguments) {
+        if (interpreter.allocations != null) interpreter.allocations.environment();
+        if (InterpreterMetrics.ENABLED) InterpreterMetrics.METRICS.environments.increment();
+        interpreter.allocate(HeapQuota.ENVIRONMENT + HeapQuota.VARIABLE * declaration.params.size(), null);
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(declaration.params.get(i).symbol, arguments.get(i));
         }
 
+        List<Stmt> body = declaration.body;
+        if (body == null) body = declaration.lazyBody.statements(declaration.name);
+
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment);
         } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
+            if (isInitializer) return closure.getAt(0, Symbol.THIS);
             return returnValue.value;
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return closure.getAt(0, Symbol.THIS);
         return null;
     }
 }
\ No newline at end of file
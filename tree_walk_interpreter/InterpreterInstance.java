@@ -5,28 +5,71 @@ import java.util.Map;
 
 /*
  * For instances
+ * Like an Environment, an instance is only locked once it is shared between threads.
  */
-class InterpreterInstance {
-    private InterpreterClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+class InterpreterInstance implements Shareable {
+    // Stands in for a field that is not set, since noll is a valid value
+    private static final Object MISSING = new Object();
+
+    final InterpreterClass klass;
+    private final Map<Symbol, Object> fields = new HashMap<>();
+    private volatile boolean shared = false;
 
     InterpreterInstance(InterpreterClass klass) {
         this.klass = klass;
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+    Object get(Interpreter interpreter, Token name) {
+        Object value = readField(name.symbol);
+        if (value != MISSING) return value;
 
-        InterpreterFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+        InterpreterFunction method = klass.findMethod(name.symbol);
+        if (method != null) return method.bind(interpreter, this, name);
 
         throw new RuntimeError(name, "Underfined property '" + name.lexeme + "'.");
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    // Returns whether this added a field
+    boolean set(Token name, Object value) {
+        if (shared) {
+            Sharing.share(value);
+            synchronized (this) {
+                return add(name.symbol, value);
+            }
+        }
+        return add(name.symbol, value);
+    }
+
+    @Override
+    public boolean markShared() {
+        if (shared) return false;
+        shared = true;
+        return true;
+    }
+
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public Iterable<Object> sharedValues() {
+        return fields.values();
+    }
+
+    private boolean add(Symbol name, Object value) {
+        int size = fields.size();
+        fields.put(name, value);
+        return fields.size() != size;
+    }
+
+    private Object readField(Symbol name) {
+        if (shared) {
+            synchronized (this) {
+                return fields.getOrDefault(name, MISSING);
+            }
+        }
+        return fields.getOrDefault(name, MISSING);
     }
 
     @Override
@@ -0,0 +1,317 @@
+package tree_walk_interpreter;
+
+import java.util.Arrays;
+
+/*
+ * Hash map, made by the map() native and indexed with m[key]
+ * Any value but noll can be a key, keys are equal when == says they are.
+ * Number keys live in their own table keyed by the bits of the double, so they
+ * are never boxed. Everything else goes in a second table that compares
+ * references before calling equals. String literals are interned by the Lexer,
+ * so they and instances skip equals entirely, strings built at run time don't.
+ * Methods are shared by every map and bound to one when a script looks them up.
+ * Both tables use linear probing and shift entries back on removal, so there
+ * are no tombstones. Like an instance it is only locked once it is shared.
+ */
+class InterpreterMap implements NativeObject, Shareable {
+    private static final Symbol SIZE = Symbol.intern("size");
+    private static final Symbol GET = Symbol.intern("get");
+    private static final Symbol SET = Symbol.intern("set");
+    private static final Symbol HAS = Symbol.intern("has");
+    private static final Symbol REMOVE = Symbol.intern("remove");
+    private static final Symbol KEYS = Symbol.intern("keys");
+    private static final Symbol VALUES = Symbol.intern("values");
+
+    private static final NativeMethod<InterpreterMap> GET_METHOD = new NativeMethod<>(1,
+        (interpreter, map, arguments) -> map.get(arguments.get(0)));
+    private static final NativeMethod<InterpreterMap> SET_METHOD = new NativeMethod<>(2, (interpreter, map, arguments) -> {
+        interpreter.checkWrite(map, null);
+        if (map.set(arguments.get(0), arguments.get(1))) interpreter.allocate(HeapQuota.MAP_ENTRY, null);
+        return arguments.get(1);
+    });
+    private static final NativeMethod<InterpreterMap> HAS_METHOD = new NativeMethod<>(1,
+        (interpreter, map, arguments) -> map.has(arguments.get(0)));
+    private static final NativeMethod<InterpreterMap> REMOVE_METHOD = new NativeMethod<>(1, (interpreter, map, arguments) -> {
+        interpreter.checkWrite(map, null);
+        return map.remove(arguments.get(0));
+    });
+    private static final NativeMethod<InterpreterMap> KEYS_METHOD = new NativeMethod<>(0, (interpreter, map, arguments) -> {
+        interpreter.allocate(HeapQuota.array(map.size()), null);
+        return InterpreterArray.of(map.entries(true));
+    });
+    private static final NativeMethod<InterpreterMap> VALUES_METHOD = new NativeMethod<>(0, (interpreter, map, arguments) -> {
+        interpreter.allocate(HeapQuota.array(map.size()), null);
+        return InterpreterArray.of(map.entries(false));
+    });
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Number keys
+    private long[] numberKeys = new long[INITIAL_CAPACITY];
+    private Object[] numberValues = new Object[INITIAL_CAPACITY];
+    private boolean[] numberUsed = new boolean[INITIAL_CAPACITY];
+    private int numberCount = 0;
+
+    // Every other key, a null key marks an empty slot
+    private Object[] objectKeys = new Object[INITIAL_CAPACITY];
+    private Object[] objectValues = new Object[INITIAL_CAPACITY];
+    private int objectCount = 0;
+
+    private volatile boolean shared = false;
+
+    int size() {
+        if (shared) {
+            synchronized (this) {
+                return numberCount + objectCount;
+            }
+        }
+        return numberCount + objectCount;
+    }
+
+    // The value for key, noll when there is none
+    Object get(Object key) {
+        if (shared) {
+            synchronized (this) {
+                return load(key);
+            }
+        }
+        return load(key);
+    }
+
+    // Returns whether key is new
+    boolean set(Object key, Object value) {
+        checkKey(key);
+        if (shared) {
+            Sharing.share(key);
+            Sharing.share(value);
+            synchronized (this) {
+                return store(key, value);
+            }
+        }
+        return store(key, value);
+    }
+
+    boolean has(Object key) {
+        if (shared) {
+            synchronized (this) {
+                return contains(key);
+            }
+        }
+        return contains(key);
+    }
+
+    // Returns whether key was there
+    boolean remove(Object key) {
+        if (shared) {
+            synchronized (this) {
+                return delete(key);
+            }
+        }
+        return delete(key);
+    }
+
+    @Override
+    public Object get(Symbol name) {
+        if (name == SIZE) return (double)size();
+        if (name == GET) return GET_METHOD.bind(this);
+        if (name == SET) return SET_METHOD.bind(this);
+        if (name == HAS) return HAS_METHOD.bind(this);
+        if (name == REMOVE) return REMOVE_METHOD.bind(this);
+        if (name == KEYS) return KEYS_METHOD.bind(this);
+        if (name == VALUES) return VALUES_METHOD.bind(this);
+        return null;
+    }
+
+    @Override
+    public boolean markShared() {
+        if (shared) return false;
+        shared = true;
+        return true;
+    }
+
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
+    @Override
+    public Iterable<Object> sharedValues() {
+        Object[] all = Arrays.copyOf(objectKeys, objectKeys.length + objectValues.length + numberValues.length);
+        System.arraycopy(objectValues, 0, all, objectKeys.length, objectValues.length);
+        System.arraycopy(numberValues, 0, all, objectKeys.length + objectValues.length, numberValues.length);
+        return Arrays.asList(all);
+    }
+
+    @Override
+    public String toString() {
+        return "<map>";
+    }
+
+    private static void checkKey(Object key) {
+        if (key == null) throw new RuntimeError(null, "Map keys can't be noll.");
+    }
+
+    private Object load(Object key) {
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double)key));
+            return slot < 0 ? null : numberValues[slot];
+        }
+        if (key == null) return null;
+        int slot = findObject(key);
+        return slot < 0 ? null : objectValues[slot];
+    }
+
+    private boolean contains(Object key) {
+        if (key instanceof Double) return findNumber(Double.doubleToLongBits((double)key)) >= 0;
+        if (key == null) return false;
+        return findObject(key) >= 0;
+    }
+
+    private boolean store(Object key, Object value) {
+        if (key instanceof Double) return storeNumber(Double.doubleToLongBits((double)key), value);
+        return storeObject(key, value);
+    }
+
+    private boolean storeNumber(long bits, Object value) {
+        int mask = numberKeys.length - 1;
+        int slot = mix(Long.hashCode(bits)) & mask;
+        while (numberUsed[slot]) {
+            if (numberKeys[slot] == bits) {
+                numberValues[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        numberKeys[slot] = bits;
+        numberValues[slot] = value;
+        numberUsed[slot] = true;
+        if (++numberCount * 3 > numberKeys.length * 2) growNumbers();
+        return true;
+    }
+
+    private boolean storeObject(Object key, Object value) {
+        int mask = objectKeys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        Object existing;
+        while ((existing = objectKeys[slot]) != null) {
+            if (existing == key || existing.equals(key)) {
+                objectValues[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        objectKeys[slot] = key;
+        objectValues[slot] = value;
+        if (++objectCount * 3 > objectKeys.length * 2) growObjects();
+        return true;
+    }
+
+    private boolean delete(Object key) {
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double)key));
+            if (slot < 0) return false;
+            int mask = numberKeys.length - 1;
+            // Pull later entries of the same run back into the hole
+            int hole = slot;
+            for (int next = (hole + 1) & mask; numberUsed[next]; next = (next + 1) & mask) {
+                int home = mix(Long.hashCode(numberKeys[next])) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    numberKeys[hole] = numberKeys[next];
+                    numberValues[hole] = numberValues[next];
+                    hole = next;
+                }
+            }
+            numberUsed[hole] = false;
+            numberValues[hole] = null;
+            numberCount--;
+            return true;
+        }
+
+        if (key == null) return false;
+        int slot = findObject(key);
+        if (slot < 0) return false;
+        int mask = objectKeys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; objectKeys[next] != null; next = (next + 1) & mask) {
+            int home = mix(objectKeys[next].hashCode()) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                objectKeys[hole] = objectKeys[next];
+                objectValues[hole] = objectValues[next];
+                hole = next;
+            }
+        }
+        objectKeys[hole] = null;
+        objectValues[hole] = null;
+        objectCount--;
+        return true;
+    }
+
+    private int findNumber(long bits) {
+        int mask = numberKeys.length - 1;
+        for (int slot = mix(Long.hashCode(bits)) & mask; numberUsed[slot]; slot = (slot + 1) & mask) {
+            if (numberKeys[slot] == bits) return slot;
+        }
+        return -1;
+    }
+
+    private int findObject(Object key) {
+        int mask = objectKeys.length - 1;
+        Object existing;
+        for (int slot = mix(key.hashCode()) & mask; (existing = objectKeys[slot]) != null; slot = (slot + 1) & mask) {
+            if (existing == key || existing.equals(key)) return slot;
+        }
+        return -1;
+    }
+
+    private void growNumbers() {
+        long[] keys = numberKeys;
+        Object[] values = numberValues;
+        boolean[] used = numberUsed;
+        numberKeys = new long[keys.length * 2];
+        numberValues = new Object[keys.length * 2];
+        numberUsed = new boolean[keys.length * 2];
+        numberCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) storeNumber(keys[i], values[i]);
+        }
+    }
+
+    private void growObjects() {
+        Object[] keys = objectKeys;
+        Object[] values = objectValues;
+        objectKeys = new Object[keys.length * 2];
+        objectValues = new Object[keys.length * 2];
+        objectCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) storeObject(keys[i], values[i]);
+        }
+    }
+
+    // Keys or values in table order, numbers first
+    private Object[] entries(boolean keys) {
+        if (shared) {
+            synchronized (this) {
+                return collect(keys);
+            }
+        }
+        return collect(keys);
+    }
+
+    private Object[] collect(boolean keys) {
+        Object[] result = new Object[numberCount + objectCount];
+        int next = 0;
+        for (int i = 0; i < numberKeys.length; i++) {
+            if (numberUsed[i]) result[next++] = keys ? Double.longBitsToDouble(numberKeys[i]) : numberValues[i];
+        }
+        for (int i = 0; i < objectKeys.length; i++) {
+            if (objectKeys[i] != null) result[next++] = keys ? objectKeys[i] : objectValues[i];
+        }
+        return result;
+    }
+
+    // Spreads the low bits, sequential numbers and string hashes cluster otherwise
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
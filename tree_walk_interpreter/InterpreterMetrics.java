@@ -0,0 +1,110 @@
+package tree_walk_interpreter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Live counters for long-running interpreters, published over JMX as
+ * tree_walk_interpreter:type=Interpreter
+ * Off unless the JVM runs with -Dtree_walk_interpreter.metrics=true: starting
+ * the platform MBean server takes more than half a second, too much for every
+ * short script. When off, every hook is a check of a constant the JIT removes.
+ * The counters are LongAdders, so threads counting at once don't contend.
+ */
+final class InterpreterMetrics implements InterpreterMetricsMBean {
+    static final boolean ENABLED = Boolean.getBoolean("tree_walk_interpreter.metrics");
+    static final InterpreterMetrics METRICS = new InterpreterMetrics();
+
+    static final int LEX = 0;
+    static final int PARSE = 1;
+    static final int RESOLVE = 2;
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder instances = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder runtimeErrors = new LongAdder();
+    final LongAdder callDepth = new LongAdder();
+    final LongAdder compilations = new LongAdder();
+    private final LongAdder[] phaseNanos = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+    private InterpreterMetrics() {}
+
+    // Called by every new Interpreter, only the first registers
+    static void register() {
+        if (ENABLED) Registration.ensure();
+    }
+
+    // Registers the bean when first loaded, the JVM makes sure that happens once
+    private static final class Registration {
+        static {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(METRICS, new ObjectName("tree_walk_interpreter:type=Interpreter"));
+            } catch (JMException error) {
+                System.err.println("Could not register interpreter metrics: " + error.getMessage());
+            }
+        }
+
+        static void ensure() {}
+    }
+
+    // start is the System.nanoTime() the phase began at
+    static void phase(int phase, long start) {
+        if (!ENABLED) return;
+        METRICS.phaseNanos[phase].add(System.nanoTime() - start);
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getInstancesCreated() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getCallDepth() {
+        return callDepth.sum();
+    }
+
+    @Override
+    public long getCompilations() {
+        return compilations.sum();
+    }
+
+    @Override
+    public long getLexMillis() {
+        return phaseNanos[LEX].sum() / 1_000_000;
+    }
+
+    @Override
+    public long getParseMillis() {
+        return phaseNanos[PARSE].sum() / 1_000_000;
+    }
+
+    @Override
+    public long getResolveMillis() {
+        return phaseNanos[RESOLVE].sum() / 1_000_000;
+    }
+}
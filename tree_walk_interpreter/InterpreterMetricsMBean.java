@@ -0,0 +1,30 @@
+package tree_walk_interpreter;
+
+/*
+ * What jconsole and other JMX clients see of InterpreterMetrics
+ * JMX only reads public interfaces, so this one has to be public.
+ * Counts are totals over every interpreter in the JVM since it started.
+ */
+public interface InterpreterMetricsMBean {
+    long getStatementsExecuted();
+
+    long getCalls();
+
+    long getInstancesCreated();
+
+    long getEnvironmentsAllocated();
+
+    long getRuntimeErrors();
+
+    // Script calls running right now, summed over every thread
+    long getCallDepth();
+
+    long getCompilations();
+
+    // With --parallel lexing happens while parsing and is counted as parse time
+    long getLexMillis();
+
+    long getParseMillis();
+
+    long getResolveMillis();
+}
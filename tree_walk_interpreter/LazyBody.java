@@ -0,0 +1,64 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * A function body the Parser only brace-matched
+ * It keeps the token range of the body and, once the Resolver reaches the
+ * declaration, a copy of the Resolver's scopes there. The first call parses
+ * and resolves it, later calls reuse the statements. Functions nested in it
+ * are pre-parsed the same way.
+ */
+class LazyBody {
+    private final TokenStream tokens;
+    private final int start;
+    private final int end;
+    private final ErrorReporter reporter;
+    // The ids of the compile the body belongs to
+    private final NodeIds ids;
+    private Resolver resolver;
+    private volatile List<Stmt> statements;
+
+    LazyBody(TokenStream tokens, int start, int end, ErrorReporter reporter, NodeIds ids) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.reporter = reporter;
+        this.ids = ids;
+    }
+
+    void deferResolution(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    // The body if a call has parsed it already, without parsing it
+    List<Stmt> parsed() {
+        return statements;
+    }
+
+    List<Stmt> statements(Token name) {
+        List<Stmt> result = statements;
+        if (result != null) return result;
+
+        synchronized (this) {
+            if (statements != null) return statements;
+
+            boolean[] failed = {false};
+            ErrorReporter tracking = (line, where, message) -> {
+                failed[0] = true;
+                reporter.report(line, where, message);
+            };
+
+            List<Stmt> parsed = new Parser(tokens, tracking, Parser.FunctionBodies.LAZY, start, end, reporter, ids).parse();
+            if (!failed[0]) resolver.resolve(parsed, tracking);
+            if (failed[0]) {
+                throw new RuntimeError(name, "Function '" + name.lexeme + "' has errors in its body.");
+            }
+
+            // Neither is needed once the body exists.
+            resolver = null;
+            statements = parsed;
+            return parsed;
+        }
+    }
+}
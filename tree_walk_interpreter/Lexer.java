@@ -6,58 +6,80 @@ import java.util.List;
 import java.util.Map;
 
 /*
- * Will take the source code and produce an Arraylist of tokens
- * Tokens hold token type, lexeme, literal, and line number 
+ * Will take the source code and produce a compact stream of tokens
+ * Tokens hold token type, source range, literal, and line number 
  */
 class Lexer {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Source source;
+    private final TokenStream tokens;
+    private final ErrorReporter reporter;
+    // Identifiers are interned here so repeated names share one Symbol
+    private final SymbolTable symbols = new SymbolTable();
     //Start and current are offsets that index into the string. start first character of lexeme, and current points to current character.
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
     Lexer(String source) {
+        this(Source.of(source));
+    }
+
+    Lexer(Source source) {
+        this(source, 1, Main.reporter);
+    }
+
+    /*
+     * For a chunk of a larger script, line is where the chunk starts
+     */
+    Lexer(Source source, int line, ErrorReporter reporter) {
         this.source = source;
+        this.tokens = new TokenStream(source);
+        this.line = line;
+        this.reporter = reporter;
     }
 
-    private static final Map<String, TokenType> keywords;
+    // Exact powers of ten for the number fast path
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private static final Map<Symbol, TokenType> keywords;
 
     /*
-     * Hash map holds keywords used
+     * Hash map holds keywords used, keyed by symbol so the lookup hashes an id
      */
     static {
         keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
+        keywords.put(Symbol.intern("and"), TokenType.AND);
+        keywords.put(Symbol.intern("class"), TokenType.CLASS);
+        keywords.put(Symbol.intern("else"), TokenType.ELSE);
+        keywords.put(Symbol.intern("false"), TokenType.FALSE);
+        keywords.put(Symbol.intern("for"), TokenType.FOR);
+        keywords.put(Symbol.intern("fun"), TokenType.FUN);
+        keywords.put(Symbol.intern("if"), TokenType.IF);
         // To specify difference between null from java and from Interpreter
-        keywords.put("noll", TokenType.NOLL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
+        keywords.put(Symbol.intern("noll"), TokenType.NOLL);
+        keywords.put(Symbol.intern("or"), TokenType.OR);
+        keywords.put(Symbol.intern("print"), TokenType.PRINT);
+        keywords.put(Symbol.intern("return"), TokenType.RETURN);
+        keywords.put(Symbol.intern("super"), TokenType.SUPER);
+        keywords.put(Symbol.intern("this"), TokenType.THIS);
+        keywords.put(Symbol.intern("true"), TokenType.TRUE);
+        keywords.put(Symbol.intern("var"), TokenType.VAR);
+        keywords.put(Symbol.intern("while"), TokenType.WHILE);
     }
 
     /*
-     * Will scan all tokens in source code and put in list
+     * Will scan all tokens in source code and put in the stream
      */
-    List<Token> scanTokens() {
+    TokenStream scanTokens() {
         while (!isAtEnd()) {
             // We are at the beginning of the next lexeme
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, current, 0, line, null);
         return tokens;
     }
 
@@ -72,6 +94,8 @@ class Lexer {
             case ')': addToken(TokenType.RIGHT_PAREN); break;
             case '{': addToken(TokenType.LEFT_BRACE); break;
             case '}': addToken(TokenType.RIGHT_BRACE); break;
+            case '[': addToken(TokenType.LEFT_BRACKET); break;
+            case ']': addToken(TokenType.RIGHT_BRACKET); break;
             case ',': addToken(TokenType.COMMA); break;
             case '.': addToken(TokenType.DOT); break;
             case '-': addToken(TokenType.MINUS); break;
@@ -94,16 +118,9 @@ class Lexer {
                 break;
             case '/':
                 if (match('/')) {
-                    // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    lineComment();
                 } else if (match('*')) {
-                    // Block comments
-                    while (peek() != '*' && peekNext() != '/' && !isAtEnd()) {
-                        advance(); 
-                        if (peek() == '\n') line++;
-                    }
-                    // To consume the '*/'.
-                    current += 2;
+                    blockComment();
                 }
                 else {
                     addToken(TokenType.SLASH);
@@ -130,62 +147,168 @@ class Lexer {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Main.error(line, "Unexpected character.");
+                    // Skip the rest of a multi-byte character so it is reported once
+                    if (c >= 0x80) {
+                        while (peek() >= 0x80 && peek() < 0xC0) advance();
+                    }
+                    reporter.error(line, "Unexpected character.");
                 }
                 break;
         }
     }
 
+    /*
+     * Skims the source without producing tokens to find where it can be split for
+     * chunked parsing: a top-level fun, class or var right after a complete
+     * statement. Boundaries are at least chunkSize bytes apart and each is a
+     * pair of offset and line. Comments and strings are skipped exactly as
+     * scanToken does, so the lines agree with a full scan.
+     */
+    List<int[]> topLevelBoundaries(int chunkSize) {
+        List<int[]> boundaries = new ArrayList<>();
+        int depth = 0;
+        boolean statementEnded = true;
+        int next = chunkSize;
+
+        while (!isAtEnd()) {
+            start = current;
+            char c = advance();
+            switch (c) {
+                case '(': case '{': case '[': depth++; statementEnded = false; break;
+                case ')': case ']': depth--; statementEnded = false; break;
+                case '}': depth--; statementEnded = depth == 0; break;
+                case ';': statementEnded = depth == 0; break;
+                case ' ': case '\r': case '\t': break;
+                case '\n': line++; break;
+                case '/':
+                    if (match('/')) {
+                        lineComment();
+                    } else if (match('*')) {
+                        blockComment();
+                    } else {
+                        statementEnded = false;
+                    }
+                    break;
+                case '"':
+                    skipString();
+                    if (!isAtEnd()) advance();
+                    statementEnded = false;
+                    break;
+                default:
+                    if (isAlpha(c)) {
+                        while (isAlphaNumeric(peek())) advance();
+                        if (statementEnded && depth == 0 && start >= next && isDeclarationKeyword()) {
+                            boundaries.add(new int[] {start, line});
+                            next = start + chunkSize;
+                        }
+                    }
+                    statementEnded = false;
+                    break;
+            }
+
+            // Unbalanced, leave the rest of the script in one chunk.
+            if (depth < 0) break;
+        }
+
+        return boundaries;
+    }
+
+    private boolean isDeclarationKeyword() {
+        return source.matches(start, current, "fun") || source.matches(start, current, "class")
+            || source.matches(start, current, "var");
+    }
+
+    // A comment goes until the end of the line.
+    private void lineComment() {
+        while (peek() != '\n' && !isAtEnd()) advance();
+    }
+
+    // Block comments
+    private void blockComment() {
+        while (peek() != '*' && peekNext() != '/' && !isAtEnd()) {
+            advance(); 
+            if (peek() == '\n') line++;
+        }
+        // To consume the '*/'.
+        current += 2;
+    }
+
     /*
      * For identifiers
      */
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        Symbol symbol = symbols.intern(source, start, current);
+        TokenType type = keywords.get(symbol);
         if (type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        tokens.add(type, start, current - start, line, symbol);
     }
 
     /*
      * To scan numbers and add them to tokens list
+     * Digits are accumulated as they are consumed. Up to 15 significant digits
+     * the mantissa and the power of ten are both exact doubles, so one division
+     * gives the correctly rounded value without building a substring.
      */
     private void number() {
-        while (isDigit(peek())) advance();
+        long mantissa = source.charAt(start) - '0';
+        int digits = 1;
+        int scale = 0;
+        while (isDigit(peek())) {
+            mantissa = mantissa * 10 + (advance() - '0');
+            digits++;
+        }
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the "."
             advance();
 
-            while (isDigit(peek())) advance(); 
+            while (isDigit(peek())) {
+                mantissa = mantissa * 10 + (advance() - '0');
+                digits++;
+                scale++;
+            }
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        double value;
+        if (digits <= 15) {
+            value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        } else {
+            // Too long for the exact path, let the JDK round it.
+            value = Double.parseDouble(source.text(start, current));
+        }
+        addToken(TokenType.NUMBER, value);
     }
 
     /*
      * To scan strings and add them to tokens list
      */
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
-        }
+        skipString();
 
         if (isAtEnd()) {
-            Main.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         advance(); // The closing ".
 
-        // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
+        // Trim the surrounding quotes, this is the only place non-ASCII text gets decoded.
+        // Interned so equal literals are one String, maps compare keys by reference first.
+        String value = source.text(start + 1, current - 1).intern();
         addToken(TokenType.STRING, value);
     }
 
+    // Consumes up to the closing quote, strings can span lines
+    private void skipString() {
+        while (peek() != '"' && !isAtEnd()) {
+            if (peek() == '\n') line++;
+            advance();
+        }
+    }
+
     /*
      * Like advance but only consume character if it is expected.
      */
@@ -248,8 +371,7 @@ class Lexer {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current - start, line, literal);
     }
 }
 
@@ -1,42 +1,171 @@
 package tree_walk_interpreter;
 
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Main {
-    private static final Interpreter interpreter = new Interpreter();
+    private static Session session;
+    private static Profiler profiler;
+    private static AllocationProfiler allocationProfiler;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    static final ErrorReporter reporter = Main::report;
+    // Lex and parse large files in chunks across cores
+    private static boolean parallel = false;
+    private static Parser.FunctionBodies functionBodies = Parser.FunctionBodies.EAGER;
+    // Reuse the resolved program from <script>.cache when the script is unchanged
+    private static boolean cache = false;
+    // Print output is buffered up to this many characters, or flushed every line
+    private static int outputBuffer = BufferedOutput.DEFAULT_CAPACITY;
+    private static boolean lineFlush = false;
+    // Profile script functions and lines, see Profiler
+    private static boolean profile = false;
+    // Count allocations per line and class, see AllocationProfiler
+    private static boolean allocations = false;
+    // Write statement and branch coverage as LCOV, see Coverage
+    private static Coverage coverage;
+    // Loop iterations and calls the script may run, see Fuel
+    private static Fuel fuel;
+    // Bytes the script may allocate, see HeapQuota
+    private static HeapQuota heapQuota;
+
     public static void main(String[] args) throws IOException {
-        if (args.length > 1 ) {
-            System.out.println("Usage: [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            switch (args[first]) {
+                case "--parallel": parallel = true; break;
+                // Parse function bodies on first call
+                case "--lazy": functionBodies = Parser.FunctionBodies.LAZY; break;
+                // Lazy, but still report syntax errors in every body up front
+                case "--strict": functionBodies = Parser.FunctionBodies.STRICT; break;
+                case "--cache": cache = true; break;
+                case "--line-flush": lineFlush = true; break;
+                case "--profile": profile = true; break;
+                case "--allocations": allocations = true; break;
+                case "--coverage": coverage = new Coverage(); break;
+                default:
+                    if (args[first].startsWith("--fuel=")) {
+                        fuel = new Fuel(limit(args[first].substring("--fuel=".length())));
+                        break;
+                    }
+                    if (args[first].startsWith("--heap=")) {
+                        heapQuota = new HeapQuota(limit(args[first].substring("--heap=".length())));
+                        break;
+                    }
+                    if (!args[first].startsWith("--buffer=")) usage();
+                    outputBuffer = bufferSize(args[first].substring("--buffer=".length()));
+            }
+        }
+
+        // The cache stores whole bodies and coverage needs them all, so both compile eagerly.
+        if (cache || coverage != null) functionBodies = Parser.FunctionBodies.EAGER;
+        // Bypasses System.out, which locks and flushes on every line
+        OutputSink out = new BufferedOutput(new FileOutputStream(FileDescriptor.out), outputBuffer, lineFlush);
+        if (profile) profiler = new Profiler(args.length > first ? Paths.get(args[first]).getFileName().toString() : "<repl>");
+        if (allocations) allocationProfiler = new AllocationProfiler();
+        session = new Session(parallel, functionBodies, out, profiler, allocationProfiler, fuel, heapQuota);
+
+        if (args.length - first > 1 ) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: [--parallel] [--lazy | --strict] [--cache] [--line-flush] [--buffer=<chars>] [--profile] [--allocations] [--coverage] [--fuel=<units>] [--heap=<bytes>] [script]");
+        System.exit(64);
+    }
+
+    private static int bufferSize(String text) {
+        try {
+            int size = Integer.parseInt(text);
+            if (size > 0) return size;
+        } catch (NumberFormatException error) {
+            // Falls through to usage
+        }
+        usage();
+        return 0;
+    }
+
+    private static long limit(String text) {
+        try {
+            long limit = Long.parseLong(text);
+            if (limit > 0) return limit;
+        } catch (NumberFormatException error) {
+            // Falls through to usage
+        }
+        usage();
+        return 0;
+    }
+
     /*
      * When running from command line with path to a file
+     * The file is memory-mapped and lexed in place as UTF-8
      */
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path script = Paths.get(path);
+        Source source = Source.map(script);
+        List<Stmt> statements = cache ? cachedProgram(script, source) : session.compile(source);
+        if (statements != null) {
+            if (coverage != null) coverage.attach(statements);
+            session.execute(statements);
+        }
+        if (profiler != null) writeProfile(script);
+        if (coverage != null) writeCoverage(script);
+        if (allocationProfiler != null) writeAllocations(script);
 
         // Indicated an error in the exit code.
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
 
+    /*
+     * Writes the samples next to the script as <script>.collapsed
+     * and a summary of the hottest functions and lines to stderr
+     */
+    private static void writeProfile(Path script) throws IOException {
+        profiler.stop();
+        Path collapsed = script.resolveSibling(script.getFileName() + ".collapsed");
+        profiler.writeCollapsed(collapsed);
+        profiler.report(System.err);
+        System.err.println("Collapsed stacks written to " + collapsed);
+    }
+
+    /*
+     * Writes the live instance counts over time next to the script as <script>.live.csv
+     * and the lines and classes that allocate most to stderr
+     */
+    private static void writeAllocations(Path script) throws IOException {
+        allocationProfiler.stop();
+        Path snapshots = script.resolveSibling(script.getFileName() + ".live.csv");
+        allocationProfiler.writeSnapshots(snapshots);
+        allocationProfiler.report(System.err);
+        System.err.println("Live instance snapshots written to " + snapshots);
+    }
+
+    /*
+     * Writes the coverage next to the script as <script>.lcov, for genhtml or an editor
+     */
+    private static void writeCoverage(Path script) throws IOException {
+        Path lcov = script.resolveSibling(script.getFileName() + ".lcov");
+        coverage.write(lcov, script);
+        coverage.report(System.err);
+        System.err.println("Coverage written to " + lcov);
+    }
+
     /*
      * Running interactively from command line
+     * Every line goes through the same session, so earlier definitions stay visible
+     * Running a line flushes its output, so nothing is held back while waiting for input.
      */
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
@@ -46,38 +175,31 @@ public class Main {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            session.run(Source.of(line));
             // So it doesn't kill entire session.
             hadError = false;
         }
     }
 
     /*
-     * Core function
+     * The cached program if it was compiled from this exact source,
+     * otherwise compiles it and refreshes the cache, null on errors
      */
-    private static void run(String source) {
-        Lexer lexer = new Lexer(source);
-        List<Token> tokens = lexer.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        
-        // Stop if there was a syntax error.
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        // Stop if there was a resolution error/
-        if (hadError) return;
-
-        interpreter.interpret(statements);
+    private static List<Stmt> cachedProgram(Path script, Source source) {
+        List<Stmt> statements = ProgramCache.load(script, source);
+        if (statements == null) {
+            statements = session.compile(source);
+            if (statements == null) return null;
+            ProgramCache.store(script, source, statements);
+        }
+        return statements;
     }
 
     /*
      * These methods are for error handling
      */
     static void error(int line, String message) {
-        report(line, "", message);
+        reporter.error(line, message);
     }
 
     static void runtimeError(RuntimeError error) {
@@ -91,10 +213,6 @@ public class Main {
     }
 
     static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, "at end", message);
-        } else {
-            report(token.line, "at '" + token.lexeme + "'", message);
-        }
+        reporter.error(token, message);
     }
 }
\ No newline at end of file
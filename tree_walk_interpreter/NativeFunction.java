@@ -0,0 +1,36 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * A function implemented in Java, like clock
+ * Errors are thrown as RuntimeError without a token, the call site fills it in.
+ */
+class NativeFunction implements InterpreterCallable {
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,52 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * A method of a native object like a map, one for every object of its class
+ * Like a script method it is bound to its receiver when a script looks it up,
+ * so objects don't each carry their own copies of their methods.
+ * Errors are thrown as RuntimeError without a token, the call site fills it in.
+ */
+final class NativeMethod<T> {
+    interface Body<T> {
+        Object call(Interpreter interpreter, T receiver, List<Object> arguments);
+    }
+
+    private final int arity;
+    private final Body<T> body;
+
+    NativeMethod(int arity, Body<T> body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    Bound<T> bind(T receiver) {
+        return new Bound<>(this, receiver);
+    }
+
+    static final class Bound<T> implements InterpreterCallable {
+        private final NativeMethod<T> method;
+        final T receiver;
+
+        private Bound(NativeMethod<T> method, T receiver) {
+            this.method = method;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public int arity() {
+            return method.arity;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return method.body.call(interpreter, receiver, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
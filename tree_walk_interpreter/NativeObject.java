@@ -0,0 +1,9 @@
+package tree_walk_interpreter;
+
+/*
+ * A value implemented in Java that scripts use through properties, like a channel
+ */
+interface NativeObject {
+    // The property or bound method called name, null if there is none
+    Object get(Symbol name);
+}
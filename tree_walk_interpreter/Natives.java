@@ -0,0 +1,79 @@
+package tree_walk_interpreter;
+
+/*
+ * Native functions every script starts with
+ */
+final class Natives {
+    private Natives() {
+    }
+
+    // files is null when scripts may not open files
+    static void define(Environment globals, ScriptFiles files) {
+        globals.define(Symbol.intern("clock"), new NativeFunction(0, (interpreter, arguments) ->
+            (double)System.currentTimeMillis() / 1000.0));
+
+        // spawn(fn) runs fn on a virtual thread and returns a handle to join
+        globals.define(Symbol.intern("spawn"), new NativeFunction(1, (interpreter, arguments) -> {
+            Object function = arguments.get(0);
+            if (!(function instanceof InterpreterCallable) || ((InterpreterCallable)function).arity() != 0) {
+                throw new RuntimeError(null, "Can only spawn a function that takes no arguments.");
+            }
+            return new ThreadHandle(interpreter, (InterpreterCallable)function);
+        }));
+
+        // channel(capacity) makes a bounded channel with send(value) and receive()
+        globals.define(Symbol.intern("channel"), new NativeFunction(1, (interpreter, arguments) -> {
+            Object capacity = arguments.get(0);
+            if (!(capacity instanceof Double) || (double)capacity < 1 || (double)capacity != Math.floor((double)capacity)) {
+                throw new RuntimeError(null, "Channel capacity must be a positive whole number.");
+            }
+            return new Channel((int)(double)capacity);
+        }));
+
+        // array(length, fill) makes an array with every element set to fill
+        globals.define(Symbol.intern("array"), new NativeFunction(2, (interpreter, arguments) -> {
+            Object length = arguments.get(0);
+            if (!(length instanceof Double) || (double)length < 0 || (double)length != Math.floor((double)length)) {
+                throw new RuntimeError(null, "Array length must be a non-negative whole number.");
+            }
+            interpreter.allocate(HeapQuota.array((int)(double)length), null);
+            return InterpreterArray.filled((int)(double)length, arguments.get(1));
+        }));
+
+        // map() makes an empty hash map
+        globals.define(Symbol.intern("map"), new NativeFunction(0, (interpreter, arguments) -> {
+            interpreter.allocate(HeapQuota.MAP, null);
+            return new InterpreterMap();
+        }));
+
+        // open(path, mode) opens a file for reading ("r"), writing ("w") or appending ("a")
+        if (files != null) {
+            globals.define(Symbol.intern("open"), new NativeFunction(2, (interpreter, arguments) -> {
+                if (!(arguments.get(0) instanceof String) || !(arguments.get(1) instanceof String)) {
+                    throw new RuntimeError(null, "File path and mode must be strings.");
+                }
+                return files.open((String)arguments.get(0), (String)arguments.get(1));
+            }));
+        }
+
+        // parallelMap(array, fn) returns a new array of fn(element), computed on the ForkJoinPool
+        globals.define(Symbol.intern("parallelMap"), new NativeFunction(2, (interpreter, arguments) ->
+            DataParallel.map(interpreter, array(arguments.get(0)), function(arguments.get(1), 1))));
+
+        // parallelReduce(array, fn, init) folds with fn(accumulator, element), fn has to be associative
+        globals.define(Symbol.intern("parallelReduce"), new NativeFunction(3, (interpreter, arguments) ->
+            DataParallel.reduce(interpreter, array(arguments.get(0)), function(arguments.get(1), 2), arguments.get(2))));
+    }
+
+    private static InterpreterArray array(Object value) {
+        if (!(value instanceof InterpreterArray)) throw new RuntimeError(null, "Expected an array.");
+        return (InterpreterArray)value;
+    }
+
+    private static InterpreterCallable function(Object value, int arity) {
+        if (!(value instanceof InterpreterCallable) || ((InterpreterCallable)value).arity() != arity) {
+            throw new RuntimeError(null, "Expected a function that takes " + arity + " argument" + (arity == 1 ? "." : "s."));
+        }
+        return (InterpreterCallable)value;
+    }
+}
@@ -0,0 +1,48 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Hands out node ids for one compile, dense from 0 so coverage can index bitmaps by them.
+ * Lazy bodies take theirs from the same compile, whenever and on whatever
+ * thread they are parsed. Chunks of a parallel parse each take blocks of ids
+ * rather than one id at a time, so they don't all hit one counter, at the cost
+ * of a partly unused block per chunk.
+ */
+final class NodeIds {
+    private static final int BLOCK = 1024;
+
+    private final AtomicInteger next = new AtomicInteger();
+    // Where a chunk's blocks come from, null for the compile's own counter
+    private final NodeIds compile;
+    // A chunk's current block, only its parsing thread touches these
+    private int at = 0;
+    private int end = 0;
+
+    NodeIds() {
+        this(null);
+    }
+
+    private NodeIds(NodeIds compile) {
+        this.compile = compile;
+    }
+
+    // For one chunk's parser, which has to stay on one thread
+    NodeIds chunk() {
+        return new NodeIds(this);
+    }
+
+    // For lazy bodies, which may be parsed on any thread
+    NodeIds forBodies() {
+        return compile == null ? this : compile;
+    }
+
+    int next() {
+        if (compile == null) return next.getAndIncrement();
+        if (at == end) {
+            at = compile.next.getAndAdd(BLOCK);
+            end = at + BLOCK;
+        }
+        return at++;
+    }
+}
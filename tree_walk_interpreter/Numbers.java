@@ -0,0 +1,41 @@
+package tree_walk_interpreter;
+
+/*
+ * Formats numbers the way print shows them
+ * Same text as Double.toString with a trailing ".0" dropped, but integral values,
+ * the usual case, are written as a long without building the double's string first.
+ * Everything else is Double.toString, which already gives the shortest digits
+ * that read back as the same double.
+ */
+final class Numbers {
+    // Double.toString switches to an exponent from here on, even for whole numbers
+    private static final double PLAIN_LIMIT = 1e7;
+
+    private Numbers() {
+    }
+
+    static String format(double value) {
+        if (isPlainIntegral(value)) {
+            if (value == 0) return isNegativeZero(value) ? "-0" : "0";
+            return Long.toString((long)value);
+        }
+        return Double.toString(value);
+    }
+
+    // Appends without an intermediate String for integral values
+    static void append(StringBuilder text, double value) {
+        if (isPlainIntegral(value) && !isNegativeZero(value)) {
+            text.append((long)value);
+        } else {
+            text.append(format(value));
+        }
+    }
+
+    private static boolean isPlainIntegral(double value) {
+        return value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (long)value;
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return Double.doubleToRawLongBits(value) == Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,24 @@
+package tree_walk_interpreter;
+
+/*
+ * Where print statements go, every Interpreter has its own
+ */
+interface OutputSink {
+    void println(String text);
+
+    // A number as print shows it, sinks that buffer can format it in place
+    default void println(double number) {
+        println(Numbers.format(number));
+    }
+
+    default void flush() {
+    }
+
+    // What an interpreter on another thread prints to, this same sink unless it buffers per thread
+    default OutputSink forThread() {
+        return this;
+    }
+
+    // The console a line at a time, see BufferedOutput for the command line
+    OutputSink STANDARD = System.out::println;
+}
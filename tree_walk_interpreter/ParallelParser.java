@@ -0,0 +1,120 @@
+package tree_walk_interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Lexes and parses a large script in chunks on the common ForkJoinPool
+ * Chunks are split at top-level declarations, so each one parses on its own.
+ * Statements are stitched back in source order and syntax errors are replayed
+ * to the reporter in the order a sequential run reports them: every lexer error
+ * first, then the parser errors.
+ */
+class ParallelParser {
+    // Smaller chunks cost more in task overhead than they save
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final Source source;
+    private final ErrorReporter reporter;
+    private final Parser.FunctionBodies functionBodies;
+
+    ParallelParser(Source source, ErrorReporter reporter, Parser.FunctionBodies functionBodies) {
+        this.source = source;
+        this.reporter = reporter;
+        this.functionBodies = functionBodies;
+    }
+
+    List<Stmt> parse() {
+        List<int[]> boundaries = new Lexer(source).topLevelBoundaries(CHUNK_SIZE);
+        if (boundaries.isEmpty()) {
+            return new Parser(new Lexer(source, 1, reporter).scanTokens(), reporter, functionBodies).parse();
+        }
+
+        NodeIds ids = new NodeIds();
+        List<Callable<Chunk>> tasks = new ArrayList<>();
+        int start = 0;
+        int line = 1;
+        for (int[] boundary : boundaries) {
+            tasks.add(new Chunk(source.slice(start, boundary[0]), line, functionBodies, reporter, ids.chunk()));
+            start = boundary[0];
+            line = boundary[1];
+        }
+        tasks.add(new Chunk(source.slice(start, source.length()), line, functionBodies, reporter, ids.chunk()));
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (Future<Chunk> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            chunks.add(join(future));
+        }
+
+        for (Chunk chunk : chunks) chunk.lexErrors.replay(reporter);
+        for (Chunk chunk : chunks) chunk.parseErrors.replay(reporter);
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Chunk chunk : chunks) statements.addAll(chunk.statements);
+        return statements;
+    }
+
+    private static Chunk join(Future<Chunk> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(error);
+        } catch (ExecutionException error) {
+            if (error.getCause() instanceof RuntimeException) throw (RuntimeException)error.getCause();
+            throw new IllegalStateException(error.getCause());
+        }
+    }
+
+    /*
+     * One slice of the script
+     */
+    private static class Chunk implements Callable<Chunk> {
+        private final Source source;
+        private final int line;
+        private final Parser.FunctionBodies functionBodies;
+        // Lazy bodies outlive the chunk's buffers, so they report straight here
+        private final ErrorReporter bodyReporter;
+        private final NodeIds ids;
+        private final DeferredErrors lexErrors = new DeferredErrors();
+        private final DeferredErrors parseErrors = new DeferredErrors();
+        private List<Stmt> statements;
+
+        Chunk(Source source, int line, Parser.FunctionBodies functionBodies, ErrorReporter bodyReporter, NodeIds ids) {
+            this.source = source;
+            this.line = line;
+            this.functionBodies = functionBodies;
+            this.bodyReporter = bodyReporter;
+            this.ids = ids;
+        }
+
+        @Override
+        public Chunk call() {
+            Lexer lexer = new Lexer(source, line, lexErrors);
+            statements = new Parser(lexer.scanTokens(), parseErrors, functionBodies, bodyReporter, ids).parse();
+            return this;
+        }
+    }
+
+    /*
+     * Holds errors until they can be reported in order
+     */
+    private static class DeferredErrors implements ErrorReporter {
+        private final List<Object[]> errors = new ArrayList<>();
+
+        @Override
+        public void report(int line, String where, String message) {
+            errors.add(new Object[] {line, where, message});
+        }
+
+        void replay(ErrorReporter reporter) {
+            for (Object[] error : errors) {
+                reporter.report((int)error[0], (String)error[1], (String)error[2]);
+            }
+        }
+    }
+}
@@ -14,11 +14,60 @@ public class Parser {
      * Simple sentinel class we use to unwind the parser
      */
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
+
+    /*
+     * How function bodies are handled
+     * LAZY only brace-matches them and parses on first call,
+     * STRICT does the same but still checks their syntax up front.
+     */
+    enum FunctionBodies {
+        EAGER, LAZY, STRICT
+    }
+
+    private final TokenStream tokens;
+    private final ErrorReporter reporter;
+    // For lazy bodies, which report on first call, long after this parse's own errors
+    private final ErrorReporter bodyReporter;
+    private final FunctionBodies functionBodies;
+    // Ids for the statements and logical expressions this parse makes
+    private final NodeIds ids;
+    // Index of the token parsing stops at, the EOF or the '}' closing a lazy body
+    private final int end;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens) {
+        this(tokens, Main.reporter);
+    }
+
+    Parser(TokenStream tokens, ErrorReporter reporter) {
+        this(tokens, reporter, FunctionBodies.EAGER);
+    }
+
+    Parser(TokenStream tokens, ErrorReporter reporter, FunctionBodies functionBodies) {
+        this(tokens, reporter, functionBodies, reporter, new NodeIds());
+    }
+
+    /*
+     * bodyReporter differs when reporter only buffers errors for this parse,
+     * like a chunk of ParallelParser
+     */
+    Parser(TokenStream tokens, ErrorReporter reporter, FunctionBodies functionBodies, ErrorReporter bodyReporter,
+           NodeIds ids) {
+        this(tokens, reporter, functionBodies, 0, tokens.size() - 1, bodyReporter, ids);
+    }
+
+    /*
+     * Parses only the tokens from start up to end
+     */
+    Parser(TokenStream tokens, ErrorReporter reporter, FunctionBodies functionBodies, int start, int end,
+           ErrorReporter bodyReporter, NodeIds ids) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.bodyReporter = bodyReporter;
+        this.functionBodies = functionBodies;
+        this.ids = ids;
+        this.current = start;
+        this.end = end;
     }
     
 
@@ -40,10 +89,11 @@ public class Parser {
      * program -> declaration* EOF ;
      */
     private Stmt declaration() {
+        int line = tokens.line(current);
         try {
-            if (match(TokenType.CLASS)) return classDeclaration();
+            if (match(TokenType.CLASS)) return at(line, classDeclaration());
             if (match(TokenType.FUN)) return function("function");
-            if (match(TokenType.VAR)) return varDeclaration();
+            if (match(TokenType.VAR)) return at(line, varDeclaration());
             return statement();
         } catch (ParseError error) {
             synchronize();
@@ -91,8 +141,41 @@ public class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body ");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        if (functionBodies == FunctionBodies.EAGER) {
+            List<Stmt> body = block();
+            return at(name.line, new Stmt.Function(name, parameters, body));
+        }
+
+        int bodyStart = current;
+        int bodyEnd = skipBody();
+        if (functionBodies == FunctionBodies.STRICT) {
+            // Parsed only for its errors, the tree is built again on first call.
+            // Its own ids, the tree is thrown away
+            new Parser(tokens, reporter, FunctionBodies.EAGER, bodyStart, bodyEnd, reporter, new NodeIds()).parse();
+        }
+        LazyBody body = new LazyBody(tokens, bodyStart, bodyEnd, bodyReporter, ids.forBodies());
+        return at(name.line, new Stmt.Function(name, parameters, body));
+    }
+
+    /*
+     * Brace-matches up to the '}' closing a function body and consumes it
+     * Returns the index of that '}'
+     */
+    private int skipBody() {
+        int depth = 1;
+        while (!isAtEnd()) {
+            TokenType type = peekType();
+            if (type == TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == TokenType.RIGHT_BRACE && --depth == 0) {
+                int closing = current;
+                advance();
+                return closing;
+            }
+            advance();
+        }
+
+        throw error(peek(), "Expect '}' after block.");
     }
 
     /*
@@ -115,30 +198,37 @@ public class Parser {
      * statement   -> exprStmt | forStmt | ifStmt | printStmt | returnStmt | whileStmt | block ;
      */
     private Stmt statement() {
-        if (match(TokenType.FOR)) return forStatement();
-        if (match(TokenType.IF)) return ifStatement();
-        if (match(TokenType.PRINT)) return printStatement();
-        if (match(TokenType.RETURN)) return returnStatement();
-        if (match(TokenType.WHILE)) return whileStatement();
-        if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
+        int line = tokens.line(current);
+        if (match(TokenType.FOR)) return forStatement(line);
+        if (match(TokenType.IF)) return at(line, ifStatement());
+        if (match(TokenType.PRINT)) return at(line, printStatement());
+        if (match(TokenType.RETURN)) return at(line, returnStatement());
+        if (match(TokenType.WHILE)) return at(line, whileStatement());
+        if (match(TokenType.LEFT_BRACE)) return at(line, new Stmt.Block(block()));
+
+        return at(line, expressionStatement());
+    }
 
-        return expressionStatement();
+    private <T extends Stmt> T at(int line, T stmt) {
+        stmt.line = line;
+        stmt.id = ids.next();
+        return stmt;
     }
     /*
      * forStmt -> "for" "(" ( varDecl | exprStmt | ";" ) expression? ";" expression? ")" statement ;
      * Using while loop stmt class as out for loop
      */
 
-    private Stmt forStatement(){
+    private Stmt forStatement(int line){
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 
        Stmt initializer;
        if (match(TokenType.SEMICOLON)) {
         initializer = null;
        } else if (match(TokenType.VAR)) {
-        initializer = varDeclaration();
+        initializer = at(line, varDeclaration());
        } else {
-        initializer = expressionStatement();
+        initializer = at(line, expressionStatement());
        }
 
        Expr condition = null;
@@ -148,6 +238,7 @@ public class Parser {
        consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
 
        Expr increment = null;
+       int incrementLine = tokens.line(current);
        if (!check(TokenType.RIGHT_PAREN)) {
         increment = expression();
        }
@@ -155,17 +246,17 @@ public class Parser {
        Stmt body = statement();
 
        if (increment != null) {
-        body = new Stmt.Block(
+        body = at(line, new Stmt.Block(
             Arrays.asList(
                 body,
-                new Stmt.Expression(increment)));
+                at(incrementLine, new Stmt.Expression(increment)))));
        }
 
        if (condition == null) condition = new Expr.Literal(true);
-       body = new Stmt.While(condition, body);
+       body = at(line, new Stmt.While(condition, body));
 
        if (initializer != null) {
-        body = new Stmt.Block(Arrays.asList(initializer, body));
+        body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
        }
 
        return body;
@@ -244,7 +335,7 @@ public class Parser {
         return assignment();
     }
 
-    // assignment -> (call "." )? IDENTIFIER "=" assignment | logic_or ;
+    // assignment -> (call "." )? IDENTIFIER "=" assignment | call "[" expression "]" "=" assignment | logic_or ;
     private Expr assignment() {
         Expr expr = or();
 
@@ -258,6 +349,9 @@ public class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -273,7 +367,7 @@ public class Parser {
         while (match(TokenType.OR)) {
             Token operator = previous();
             Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+            expr = new Expr.Logical(expr, operator, right, ids.next());
         }
 
         return expr;
@@ -286,7 +380,7 @@ public class Parser {
         while(match(TokenType.AND)) {
             Token operator = previous();
             Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+            expr = new Expr.Logical(expr, operator, right, ids.next());
         }
 
         return expr;
@@ -356,7 +450,7 @@ public class Parser {
         return call();
     }
 
-    // call -> primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+    // call -> primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )* ;
     private Expr call() {
         Expr expr = primary();
 
@@ -366,6 +460,10 @@ public class Parser {
             } else if (match(TokenType.DOT)){
                 Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -402,7 +500,7 @@ public class Parser {
         if (match(TokenType.NOLL)) return new Expr.Literal(null);
 
         if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.value(current - 1));
         }
 
         if (match(TokenType.SUPER)) {
@@ -452,7 +550,10 @@ public class Parser {
      * If not, throws an error
      */
     private Token consume(TokenType type, String message) {
-        if(check(type)) return advance();
+        if(check(type)) {
+            advance();
+            return previous();
+        }
 
         throw error(peek(), message);
     }
@@ -460,44 +561,50 @@ public class Parser {
      
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return peekType() == type;
     }
 
     /*
-     * The advance() method consumes the current token and returns it, 
+     * The advance() method consumes the current token, 
      * similar to how our scanner's corresponding method crawled through characters
      */
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     /*
      * checks if we've run out of tokens to parse
      */
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return current >= end || peekType() == TokenType.EOF;
+    }
+
+    /*
+     * returns the type of the current token without building a Token
+     */
+    private TokenType peekType() {
+        return tokens.type(current);
     }
 
     /*
      * returns the current token we have yet to consume
      */
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     /*
      * returns the most recently consumed token
      */
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     /*
      * Reports the error
      */
     private ParseError error(Token token, String message) {
-        Main.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -509,9 +616,9 @@ public class Parser {
     private void synchronize() {
         advance();
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (peekType()) {
                 case CLASS: case FOR: case FUN: case IF: case PRINT:
                 case RETURN: case VAR: case WHILE:
                 return;
@@ -0,0 +1,250 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Script level profiler for --profile
+ * Each thread running the script keeps its own stack of script calls. Entering
+ * a call only counts it and pushes a frame, and statements are counted per line.
+ * Time comes from a sampler thread that reads every running thread's stack once
+ * a millisecond: a sample is exclusive time for the function on top and
+ * inclusive time, once, for every function on the stack. Timing each call
+ * instead doubled the run time of call-heavy scripts.
+ * The samples are written as collapsed stacks, one "a;b;c count" line per
+ * distinct stack, which flamegraph.pl and speedscope read directly.
+ * Once a thread has finished, the sampler folds its counts into totals and
+ * drops its stack, so short threads don't pile up in the sampling loop.
+ */
+final class Profiler {
+    private static final long SAMPLE_INTERVAL_MILLIS = 1;
+
+    private final String root;
+    private final List<Stack> stacks = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stack> current = ThreadLocal.withInitial(this::register);
+    // Only the sampler thread touches these until it has stopped
+    private final Map<String, Long> samples = new HashMap<>();
+    private final Map<Stats, long[]> times = new IdentityHashMap<>();
+    private final List<Stats> seen = new ArrayList<>();
+    // Counts of threads that have finished, by label
+    private final Map<String, Stats> finished = new HashMap<>();
+    private long[] finishedLines = new long[0];
+    private final Thread sampler;
+
+    // root names the bottom frame of every stack, the script's file name
+    Profiler(String root) {
+        this.root = root;
+        this.sampler = Thread.ofPlatform().daemon().name("script-profiler").unstarted(this::sample);
+        sampler.start();
+    }
+
+    // The calling thread's stack, an interpreter keeps it for its whole life
+    Stack stack() {
+        return current.get();
+    }
+
+    void stop() {
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void writeCollapsed(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    /*
+     * Hottest functions by exclusive time and hottest lines by statements run
+     * Call it after stop() and once the script's threads are done: a stack's
+     * counts are plain fields, only safe to read once its thread has finished or
+     * been joined. A thread the script left running can be missing its last counts.
+     */
+    void report(PrintStream out) {
+        // Merged across threads by name
+        Map<String, Stats> functions = new HashMap<>();
+        Map<String, long[]> sampled = new HashMap<>();
+        for (Map.Entry<Stats, long[]> entry : times.entrySet()) {
+            long[] total = sampled.computeIfAbsent(entry.getKey().label, label -> new long[2]);
+            total[0] += entry.getValue()[0];
+            total[1] += entry.getValue()[1];
+        }
+        long[] lines = merge(finished.values(), finishedLines, functions, new long[0]);
+        for (Stack stack : stacks) lines = merge(stack.functions.values(), stack.lineHits, functions, lines);
+
+        long total = 0;
+        for (long count : samples.values()) total += count;
+        out.println("Profile: " + total + " samples");
+        out.printf("%-32s %12s %14s %14s%n", "function", "calls", "inclusive ms", "exclusive ms");
+        List<Stats> sorted = new ArrayList<>(functions.values());
+        long[] none = new long[2];
+        sorted.sort((a, b) -> Long.compare(sampled.getOrDefault(b.label, none)[1], sampled.getOrDefault(a.label, none)[1]));
+        for (Stats stats : sorted.subList(0, Math.min(20, sorted.size()))) {
+            long[] time = sampled.getOrDefault(stats.label, none);
+            out.printf("%-32s %12d %14d %14d%n", stats.label, stats.calls,
+                time[0] * SAMPLE_INTERVAL_MILLIS, time[1] * SAMPLE_INTERVAL_MILLIS);
+        }
+
+        List<Integer> hot = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) if (lines[i] > 0) hot.add(i);
+        long[] hits = lines;
+        hot.sort((a, b) -> Long.compare(hits[b], hits[a]));
+        out.printf("%-32s %12s%n", "line", "statements");
+        for (int line : hot.subList(0, Math.min(10, hot.size()))) {
+            out.printf("%-32s %12d%n", "line " + line, hits[line]);
+        }
+    }
+
+    private Stack register() {
+        Stack stack = new Stack(Thread.currentThread());
+        stacks.add(stack);
+        return stack;
+    }
+
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            } catch (InterruptedException error) {
+                break;
+            }
+
+            for (Stack stack : stacks) {
+                // isAlive() makes what the thread counted visible here
+                if (!stack.owner.isAlive()) {
+                    stacks.remove(stack);
+                    finishedLines = merge(stack.functions.values(), stack.lineHits, finished, finishedLines);
+                    continue;
+                }
+                // Threads waiting on a channel, a join or for work aren't running script code
+                if (stack.owner.getState() != Thread.State.RUNNABLE) continue;
+                Frame top = stack.top;
+                key.setLength(0);
+                key.append(root);
+                appendFrames(key, top);
+                samples.merge(key.toString(), 1L, Long::sum);
+                countTime(top);
+            }
+        }
+    }
+
+    // Adds calls into functions by label and lineHits into lines, returns lines grown to fit
+    private static long[] merge(Iterable<Stats> calls, long[] lineHits, Map<String, Stats> functions, long[] lines) {
+        for (Stats stats : calls) {
+            functions.computeIfAbsent(stats.label, Stats::new).calls += stats.calls;
+        }
+        if (lineHits.length > lines.length) lines = Arrays.copyOf(lines, lineHits.length);
+        for (int i = 0; i < lineHits.length; i++) lines[i] += lineHits[i];
+        return lines;
+    }
+
+    // Inclusive once per function however deep it recurses, exclusive for the top frame
+    private void countTime(Frame top) {
+        seen.clear();
+        for (Frame frame = top; frame != null; frame = frame.parent) {
+            if (seen.contains(frame.stats)) continue;
+            seen.add(frame.stats);
+            times.computeIfAbsent(frame.stats, stats -> new long[2])[0]++;
+        }
+        if (top != null) times.get(top.stats)[1]++;
+    }
+
+    private static void appendFrames(StringBuilder key, Frame frame) {
+        if (frame == null) return;
+        appendFrames(key, frame.parent);
+        key.append(';').append(frame.stats.label);
+    }
+
+    // Calls to one function, or to one class or native by name
+    static final class Stats {
+        final String label;
+        long calls = 0;
+
+        Stats(String label) {
+            this.label = label;
+        }
+    }
+
+    // Immutable, so the sampler can walk a chain while the owner moves on
+    private static final class Frame {
+        final Stats stats;
+        final Frame parent;
+
+        Frame(Stats stats, Frame parent) {
+            this.stats = stats;
+            this.parent = parent;
+        }
+    }
+
+    /*
+     * One thread's script calls, only that thread calls enter, exit and statement
+     */
+    static final class Stack {
+        private final Thread owner;
+        private volatile Frame top;
+        private final Map<Object, Stats> functions = new IdentityHashMap<>();
+        private long[] lineHits = new long[64];
+
+        private Stack(Thread owner) {
+            this.owner = owner;
+        }
+
+        void enter(Object callee, Expr.Call call) {
+            Object key = keyFor(callee, call);
+            Stats stats = functions.get(key);
+            if (stats == null) {
+                stats = new Stats(label(callee, call));
+                functions.put(key, stats);
+            }
+            stats.calls++;
+            top = new Frame(stats, top);
+        }
+
+        void exit() {
+            top = top.parent;
+        }
+
+        void statement(int line) {
+            if (line >= lineHits.length) lineHits = Arrays.copyOf(lineHits, Math.max(line + 1, lineHits.length * 2));
+            lineHits[line]++;
+        }
+
+        // Bound methods are new objects on every access, their declaration is not
+        private static Object keyFor(Object callee, Expr.Call call) {
+            if (callee instanceof InterpreterFunction) return ((InterpreterFunction)callee).declaration;
+            if (callee instanceof InterpreterClass) return callee;
+            return call;
+        }
+
+        private static String label(Object callee, Expr.Call call) {
+            if (callee instanceof InterpreterFunction) {
+                Stmt.Function declaration = ((InterpreterFunction)callee).declaration;
+                return declaration.name.lexeme + ":" + declaration.name.line;
+            }
+            if (callee instanceof InterpreterClass) return ((InterpreterClass)callee).name;
+            // Natives are named after the call site
+            Expr site = Instrumentation.unwrap(call.callee);
+            if (site instanceof Expr.Variable) return ((Expr.Variable)site).name.lexeme;
+            if (site instanceof Expr.Get) return ((Expr.Get)site).name.lexeme;
+            return "<native>";
+        }
+    }
+}
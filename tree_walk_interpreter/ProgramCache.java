@@ -0,0 +1,561 @@
+package tree_walk_interpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * On-disk cache of a resolved program, stored next to the script as <script>.cache
+ * The file holds the SHA-256 of the source, a constant pool of strings and the
+ * tree as node tags with resolved depths inline. When the hash matches, the
+ * Lexer, Parser and Resolver are skipped entirely.
+ */
+class ProgramCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // Bump whenever the layout below changes
+    private static final int VERSION = 3;
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // Node tags, zero stands for a missing node
+    private static final int NONE = 0;
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, GROUPING = 5, LITERAL = 6,
+        LOGICAL = 7, SET = 8, SUPER = 9, THIS = 10, UNARY = 11, VARIABLE = 12, INDEX = 13, INDEX_SET = 14;
+    private static final int BLOCK = 20, CLASS = 21, EXPRESSION = 22, FUNCTION = 23, IF = 24,
+        PRINT = 25, RETURN = 26, WHILE = 27, VAR = 28;
+
+    // Literal kinds
+    private static final int NOLL = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4;
+
+    // Token types in the tree never need the top bit, it marks a token with a symbol
+    private static final int HAS_SYMBOL = 0x80;
+
+    static Path pathFor(Path script) {
+        return script.resolveSibling(script.getFileName() + ".cache");
+    }
+
+    /*
+     * Returns the cached statements, already resolved,
+     * or null when there is no cache for this exact source
+     */
+    static List<Stmt> load(Path script, Source source) {
+        Path path = pathFor(script);
+        if (!Files.isReadable(path)) return null;
+
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            return new Reader(new DataInputStream(input)).read(source.sha256());
+        } catch (IOException | RuntimeException error) {
+            // A stale or damaged cache is only a miss.
+            return null;
+        }
+    }
+
+    /*
+     * Writes the resolved statements, failures are ignored since the cache is only a shortcut
+     */
+    static void store(Path script, Source source, List<Stmt> statements) {
+        Path path = pathFor(script);
+        try {
+            byte[] tree = new Writer().write(statements);
+            // Written aside and moved in, so concurrent runs never see half a file.
+            Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                DataOutputStream data = new DataOutputStream(output);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.write(source.sha256());
+                data.write(tree);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException error) {
+            // Read-only directories and the like just run without a cache.
+        }
+    }
+
+    /*
+     * Serializes the tree, strings go to the pool and nodes refer to them by index
+     */
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Map<String, Integer> pool = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(nodes);
+
+        byte[] write(List<Stmt> statements) throws IOException {
+            writeStatements(statements);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            writeVarint(header, strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(header, utf8.length);
+                header.write(utf8);
+            }
+            nodes.writeTo(bytes);
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            writeToken(expr.name);
+            writeDepth(expr.depth);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            varint(expr.arguments.size());
+            for (Expr argument : expr.arguments) writeExpr(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(GET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            tag(INDEX);
+            writeExpr(expr.object);
+            writeToken(expr.bracket);
+            writeExpr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            tag(INDEX_SET);
+            writeExpr(expr.object);
+            writeToken(expr.bracket);
+            writeExpr(expr.index);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                tag(NOLL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                tag(NUMBER);
+                writeDouble((Double)value);
+            } else {
+                tag(STRING);
+                writeString((String)value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(SET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(SUPER);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeDepth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(THIS);
+            writeToken(expr.keyword);
+            writeDepth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            writeToken(expr.name);
+            writeDepth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            writeStatements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            tag(CLASS);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            varint(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) writeStmt(method);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            writeToken(stmt.name);
+            varint(stmt.params.size());
+            for (Token param : stmt.params) writeToken(param);
+            writeStatements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            return null;
+        }
+
+        // Probes are attached at run time, the cache keeps the plain program
+        @Override
+        public Void visitWrapperExpr(Expr.Wrapper expr) {
+            return expr.node.accept(this);
+        }
+
+        @Override
+        public Void visitWrapperStmt(Stmt.Wrapper stmt) {
+            return stmt.node.accept(this);
+        }
+
+        /*
+         * Helper methods
+         */
+        private void writeStatements(List<Stmt> statements) {
+            varint(statements.size());
+            for (Stmt statement : statements) writeStmt(statement);
+        }
+
+        private void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                tag(NONE);
+            } else {
+                stmt.accept(this);
+                varint(stmt.line);
+            }
+        }
+
+        private void writeExpr(Expr expr) {
+            if (expr == null) {
+                tag(NONE);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void writeToken(Token token) {
+            tag(token.type.ordinal() | (token.symbol != null ? HAS_SYMBOL : 0));
+            writeString(token.lexeme);
+            varint(token.line);
+        }
+
+        // Stored plus one so globals take zero
+        private void writeDepth(int depth) {
+            varint(depth + 1);
+        }
+
+        private void writeString(String string) {
+            Integer index = pool.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                pool.put(string, index);
+            }
+            varint(index);
+        }
+
+        private void writeDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException error) {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        private void tag(int tag) {
+            nodes.write(tag);
+        }
+
+        private void varint(int value) {
+            try {
+                writeVarint(out, value);
+            } catch (IOException error) {
+                throw new IllegalStateException(error);
+            }
+        }
+    }
+
+    /*
+     * Rebuilds the tree with its resolved depths
+     */
+    private static class Reader {
+        private final DataInputStream in;
+        // Node ids are not cached, a loaded program gets its own like a compiled one
+        private final NodeIds ids = new NodeIds();
+        private String[] strings;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> read(byte[] expectedHash) throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            byte[] hash = new byte[expectedHash.length];
+            in.readFully(hash);
+            if (!Arrays.equals(hash, expectedHash)) return null;
+
+            strings = new String[readVarint(in)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[readVarint(in)];
+                in.readFully(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            List<Stmt> statements = readStatements();
+            if (in.read() != -1) throw new IOException("Trailing bytes in cache.");
+            return statements;
+        }
+
+        private List<Stmt> readStatements() throws IOException {
+            int count = readVarint(in);
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) statements.add(readStmt());
+            return statements;
+        }
+
+        // A statement's line follows its node
+        private Stmt readStmt() throws IOException {
+            int tag = in.readUnsignedByte();
+            if (tag == NONE) return null;
+            Stmt stmt = readStmt(tag);
+            stmt.line = readVarint(in);
+            stmt.id = ids.next();
+            return stmt;
+        }
+
+        private Stmt readStmt(int tag) throws IOException {
+            switch (tag) {
+                case BLOCK: return new Stmt.Block(readStatements());
+                case CLASS: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable)readExpr();
+                    int count = readVarint(in);
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) methods.add((Stmt.Function)readStmt());
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION: return new Stmt.Expression(readExpr());
+                case FUNCTION: {
+                    Token name = readToken();
+                    int count = readVarint(in);
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) params.add(readToken());
+                    return new Stmt.Function(name, params, readStatements());
+                }
+                case IF: return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case PRINT: return new Stmt.Print(readExpr());
+                case RETURN: return new Stmt.Return(readToken(), readExpr());
+                case WHILE: return new Stmt.While(readExpr(), readStmt());
+                case VAR: return new Stmt.Var(readToken(), readExpr());
+            }
+            throw new IOException("Unknown statement tag " + tag + ".");
+        }
+
+        private Expr readExpr() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NONE: return null;
+                case ASSIGN: {
+                    Token name = readToken();
+                    int depth = readVarint(in) - 1;
+                    Expr.Assign assign = new Expr.Assign(name, readExpr());
+                    assign.depth = depth;
+                    return assign;
+                }
+                case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = readVarint(in);
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) arguments.add(readExpr());
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case GET: return new Expr.Get(readExpr(), readToken());
+                case GROUPING: return new Expr.Grouping(readExpr());
+                case INDEX: return new Expr.Index(readExpr(), readToken(), readExpr());
+                case INDEX_SET: return new Expr.IndexSet(readExpr(), readToken(), readExpr(), readExpr());
+                case LITERAL: return new Expr.Literal(readLiteral());
+                case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr(), ids.next());
+                case SET: return new Expr.Set(readExpr(), readToken(), readExpr());
+                case SUPER: {
+                    Expr.Super superExpr = new Expr.Super(readToken(), readToken());
+                    superExpr.depth = readVarint(in) - 1;
+                    return superExpr;
+                }
+                case THIS: {
+                    Expr.This thisExpr = new Expr.This(readToken());
+                    thisExpr.depth = readVarint(in) - 1;
+                    return thisExpr;
+                }
+                case UNARY: return new Expr.Unary(readToken(), readExpr());
+                case VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(readToken());
+                    variable.depth = readVarint(in) - 1;
+                    return variable;
+                }
+            }
+            throw new IOException("Unknown expression tag " + tag + ".");
+        }
+
+        private Object readLiteral() throws IOException {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+                case NOLL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case NUMBER: return in.readDouble();
+                // Interned like the Lexer's literals
+                case STRING: return strings[readVarint(in)].intern();
+            }
+            throw new IOException("Unknown literal kind " + kind + ".");
+        }
+
+        private Token readToken() throws IOException {
+            int tag = in.readUnsignedByte();
+            TokenType type = TYPES[tag & ~HAS_SYMBOL];
+            String lexeme = strings[readVarint(in)];
+            int line = readVarint(in);
+            Symbol symbol = (tag & HAS_SYMBOL) != 0 ? Symbol.intern(lexeme) : null;
+            return new Token(type, lexeme, null, line, symbol);
+        }
+    }
+
+    /*
+     * Unsigned LEB128, small counts and indexes take a single byte
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
@@ -5,14 +5,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
-// For scoping
+// For scoping, records on each variable use how many scopes out its declaration is
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<Symbol, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private ErrorReporter reporter = Main.reporter;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver() {
+    }
+
+    /*
+     * Copy of the state inside a lazily parsed function, kept to resolve its body later
+     */
+    private Resolver(Resolver other) {
+        for (Map<Symbol, Boolean> scope : other.scopes) {
+            scopes.push(new HashMap<>(scope));
+        }
+        this.currentFunction = other.currentFunction;
+        this.currentClass = other.currentClass;
     }
 
     private enum FunctionType {
@@ -28,7 +38,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
@@ -62,6 +72,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -84,22 +109,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override 
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Main.error(expr.keyword, "Can't use 'super' outside of a class.");
+            reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Main.error(expr.keyword, "Can't use 'super' in a class with no superclass");
+            reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Main.error(expr.keyword, "Can't use 'this' outside of a class.");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -124,8 +149,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         declare(stmt.name);
         define(stmt.name);
-        if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Main.error(stmt.superclass.name, "A class can't inherit from itself.");
+        if (stmt.superclass != null && stmt.name.symbol == stmt.superclass.name.symbol) {
+            reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -135,15 +160,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().put(Symbol.SUPER, true);
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        scopes.peek().put(Symbol.THIS, true);
 
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.symbol == Symbol.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
 
@@ -190,12 +215,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Main.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Main.error(stmt.keyword, "Can't return a value from an initializer.");
+                reporter.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             
             resolve(stmt.value);
@@ -223,14 +248,35 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Main.error(expr.name, "Can't read local variable in its own initializer.");
+        if(!scopes.isEmpty() && scopes.peek().get(expr.name.symbol) == Boolean.FALSE) {
+            reporter.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWrapperExpr(Expr.Wrapper expr) {
+        resolve(expr.node);
+        return null;
+    }
+
+    @Override
+    public Void visitWrapperStmt(Stmt.Wrapper stmt) {
+        resolve(stmt.node);
         return null;
     }
 
+    /*
+     * Resolves statements in the current scopes, reporting errors to reporter
+     * For a lazily parsed body these are the scopes captured at its declaration
+     */
+    void resolve(List<Stmt> statements, ErrorReporter reporter) {
+        this.reporter = reporter;
+        resolve(statements);
+    }
+
     /*
      * Helper methods
      */
@@ -257,14 +303,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        if (function.lazyBody != null) {
+            function.lazyBody.deferResolution(new Resolver(this));
+        } else {
+            resolve(function.body);
+        }
         endScope();
         currentFunction = enclosingFunction;
     }
 
     // Creates new block scope
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<Symbol, Boolean>());
     }
 
     private void endScope() {
@@ -275,25 +325,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void declare(Token name) {
         if(scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Main.error(name, "Already a variable with this name in this scope.");
+        Map<Symbol, Boolean> scope = scopes.peek();
+        if (scope.containsKey(name.symbol)) {
+            reporter.error(name, "Already a variable with this name in this scope.");
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.symbol, false);
     }
 
     // resolve initializer expression in same scope
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().put(name.symbol, true);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Distance to the scope declaring name, -1 if it is not found and so assumed global
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name.symbol)) {
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
     }
 }
@@ -0,0 +1,63 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Entry point for embedding the interpreter
+ * Compile once, then execute the CompiledScript as often and on as many
+ * threads as needed. Nothing here touches Main's static state or prints,
+ * errors come back as Diagnostics.
+ * Scripts only get open() when the engine is given a directory for their files.
+ */
+public final class ScriptEngine {
+    private final boolean parallel;
+    // Real path of the directory scripts' files are confined to, null when they can't open files
+    private final Path fileRoot;
+
+    public ScriptEngine() {
+        this(false);
+    }
+
+    /*
+     * parallel splits large sources into chunks lexed and parsed across cores
+     */
+    public ScriptEngine(boolean parallel) {
+        this.parallel = parallel;
+        this.fileRoot = null;
+    }
+
+    /*
+     * Also lets scripts open files under fileRoot, and only there: paths are
+     * resolved against it, and neither .. nor symbolic links lead out of it
+     */
+    public ScriptEngine(boolean parallel, Path fileRoot) throws IOException {
+        if (!Files.isDirectory(fileRoot)) throw new IllegalArgumentException(fileRoot + " is not a directory.");
+        this.parallel = parallel;
+        this.fileRoot = fileRoot.toRealPath();
+    }
+
+    public CompiledScript compile(String source) {
+        return compile(Source.of(source));
+    }
+
+    public CompiledScript compile(Path path) throws IOException {
+        return compile(Source.map(path));
+    }
+
+    private CompiledScript compile(Source source) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        ErrorReporter collector = (line, where, message) ->
+            diagnostics.add(new Diagnostic(Diagnostic.Kind.COMPILE, line, where, message));
+
+        // Bodies are parsed eagerly so a shared script never changes after this.
+        Compiler compiler = new Compiler(collector, parallel, Parser.FunctionBodies.EAGER);
+        List<Stmt> statements = compiler.compile(source, new Resolver());
+        if (statements == null) return new CompiledScript(List.of(), Collections.unmodifiableList(diagnostics), fileRoot);
+        return new CompiledScript(Collections.unmodifiableList(statements), List.of(), fileRoot);
+    }
+}
@@ -0,0 +1,150 @@
+package tree_walk_interpreter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.List;
+
+/*
+ * Java Flight Recorder events for what scripts do
+ * They show up in a recording next to GC and JIT events. Loading the first
+ * event class starts up the recorder, which added a third of a second to every
+ * run, so the hooks only touch them once the recorder is up, whether the JVM
+ * was started with a recording (-XX:StartFlightRecording) or one was started
+ * later with jcmd JFR.start. Until then they cost one volatile read, after it
+ * the events' own shouldCommit() decides.
+ * The Java stack is the interpreter's own, so it is left out, the script
+ * function and line are in the fields instead.
+ */
+final class ScriptEvents {
+    private ScriptEvents() {}
+
+    // Not cached, a recording can start at any time
+    static boolean enabled() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("tree_walk_interpreter.FunctionCall")
+    @Label("Script Function Call")
+    @Description("A call to a script function that took longer than the threshold")
+    @Category({"Script", "Execution"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+
+        @Label("Arguments")
+        int arguments;
+    }
+
+    @Name("tree_walk_interpreter.Instantiation")
+    @Label("Script Class Instantiation")
+    @Description("An instance created by calling a script class, including its initializer")
+    @Category({"Script", "Execution"})
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("tree_walk_interpreter.RuntimeError")
+    @Label("Script Runtime Error")
+    @Description("A runtime error that stopped a script")
+    @Category({"Script", "Execution"})
+    @StackTrace(false)
+    static final class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+
+        @Label("Token")
+        String token;
+    }
+
+    @Name("tree_walk_interpreter.CompilePhase")
+    @Label("Script Compile Phase")
+    @Description("Lexing, parsing or resolving one source")
+    @Category({"Script", "Compilation"})
+    @StackTrace(false)
+    static final class CompilePhase extends Event {
+        // lex, parse or resolve, parallel parsing lexes too and reports as "lex and parse"
+        @Label("Phase")
+        String phase;
+
+        @Label("Statements")
+        int statements;
+
+        @Label("Tokens")
+        int tokens;
+    }
+
+    static Object functionCall(InterpreterFunction function, Interpreter interpreter, List<Object> arguments) {
+        FunctionCall event = new FunctionCall();
+        event.begin();
+        try {
+            return function.invoke(interpreter, arguments);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = function.declaration.name.lexeme;
+                event.line = function.declaration.name.line;
+                event.arguments = arguments.size();
+                event.commit();
+            }
+        }
+    }
+
+    static Object instantiation(InterpreterClass klass, Interpreter interpreter, List<Object> arguments) {
+        Instantiation event = new Instantiation();
+        event.begin();
+        Object instance = klass.instantiate(interpreter, arguments);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = klass.name;
+            event.commit();
+        }
+        return instance;
+    }
+
+    // Null when not recording, pass it back to endPhase
+    static CompilePhase beginPhase() {
+        if (!enabled()) return null;
+        CompilePhase event = new CompilePhase();
+        event.begin();
+        return event;
+    }
+
+    static void endPhase(CompilePhase event, String phase, int statements, int tokens) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.phase = phase;
+        event.statements = statements;
+        event.tokens = tokens;
+        event.commit();
+    }
+
+    static void runtimeError(RuntimeError error) {
+        if (!enabled()) return;
+        ScriptError event = new ScriptError();
+        if (!event.shouldCommit()) return;
+        event.message = error.getMessage();
+        if (error.token != null) {
+            event.line = error.token.line;
+            event.token = error.token.lexeme;
+        }
+        event.commit();
+    }
+}
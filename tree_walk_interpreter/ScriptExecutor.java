@@ -0,0 +1,59 @@
+package tree_walk_interpreter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Runs script invocations on virtual threads
+ * Every submit gets its own virtual thread, Interpreter and captured output.
+ * At most maxConcurrentRuns execute at once; the rest wait on a semaphore,
+ * which costs a parked virtual thread rather than a blocked carrier.
+ * Running scripts yield their carrier every few thousand loop iterations or
+ * calls, so a busy loop can't hold a carrier from the runs queued behind it.
+ */
+public final class ScriptExecutor implements AutoCloseable {
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+
+    public ScriptExecutor(int maxConcurrentRuns) {
+        if (maxConcurrentRuns < 1) {
+            throw new IllegalArgumentException("maxConcurrentRuns must be at least 1.");
+        }
+        this.permits = new Semaphore(maxConcurrentRuns);
+    }
+
+    public CompletableFuture<ExecutionResult> submit(CompiledScript script) {
+        return submit(script, Fuel.UNLIMITED);
+    }
+
+    /*
+     * Limits the run to fuel loop iterations and calls, see CompiledScript.execute(long)
+     */
+    public CompletableFuture<ExecutionResult> submit(CompiledScript script, long fuel) {
+        return submit(script, fuel, HeapQuota.UNLIMITED);
+    }
+
+    /*
+     * Also caps what the run allocates, see CompiledScript.execute(long, long)
+     */
+    public CompletableFuture<ExecutionResult> submit(CompiledScript script, long fuel, long heapBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                return script.execute(fuel, heapBytes);
+            } finally {
+                permits.release();
+            }
+        }, threads);
+    }
+
+    /*
+     * Waits for submitted runs to finish, then stops accepting new ones
+     */
+    @Override
+    public void close() {
+        threads.close();
+    }
+}
@@ -0,0 +1,75 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The files one run may open, and the ones it has open
+ * The command line lets scripts open anything, embedders choose a root that
+ * paths are resolved under and can't leave, symbolic links included, or give
+ * scripts no open() at all. The run flushes what its scripts left in the
+ * buffers of files they never closed when it ends.
+ */
+final class ScriptFiles {
+    // Null when a script may open any path
+    private final Path root;
+    // Guarded by itself, threads of the run open files too
+    private final List<InterpreterFile> open = new ArrayList<>();
+
+    // root confines paths under it and has to be a real path, see ScriptEngine, null allows any path
+    ScriptFiles(Path root) {
+        this.root = root;
+    }
+
+    InterpreterFile open(String path, String mode) {
+        Path file;
+        try {
+            file = resolve(path);
+        } catch (InvalidPathException | IOException error) {
+            throw new RuntimeError(null, "Could not open '" + path + "': " + error.getMessage());
+        }
+        InterpreterFile opened = new InterpreterFile(this, file, path, mode);
+        synchronized (open) {
+            open.add(opened);
+        }
+        return opened;
+    }
+
+    void closed(InterpreterFile file) {
+        synchronized (open) {
+            open.remove(file);
+        }
+    }
+
+    // Writes out what files still open hold in their buffers
+    void flush() {
+        List<InterpreterFile> files;
+        synchronized (open) {
+            files = new ArrayList<>(open);
+        }
+        for (InterpreterFile file : files) file.flush();
+    }
+
+    private Path resolve(String path) throws IOException {
+        if (root == null) return Path.of(path);
+        Path file = root.resolve(path).normalize();
+        if (!file.startsWith(root)) throw outside(path);
+        // Links are followed to where they lead, a file that doesn't exist yet by its directory
+        Path real = file;
+        if (Files.exists(file)) {
+            real = file.toRealPath();
+        } else if (Files.isDirectory(file.getParent())) {
+            real = file.getParent().toRealPath().resolve(file.getFileName());
+        }
+        if (!real.startsWith(root)) throw outside(path);
+        return real;
+    }
+
+    private static RuntimeError outside(String path) {
+        return new RuntimeError(null, "Could not open '" + path + "': outside the scripts' file root.");
+    }
+}
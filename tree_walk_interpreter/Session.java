@@ -0,0 +1,43 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * One interpreter and one resolver kept across every input
+ * The REPL feeds each line through the same session, so only the new statements
+ * are resolved and globals stay defined. Resolved depths live on the tree nodes
+ * rather than in a table, so a line's resolution data is collected together
+ * with its statements once nothing can run them again.
+ */
+class Session {
+    private final Interpreter interpreter;
+    private final Resolver resolver = new Resolver();
+    private final boolean parallel;
+    private final Parser.FunctionBodies functionBodies;
+
+    Session(boolean parallel, Parser.FunctionBodies functionBodies, OutputSink out,
+            Profiler profiler, AllocationProfiler allocationProfiler, Fuel fuel, HeapQuota heapQuota) {
+        // Scripts run from the command line can open any file the user can
+        this.interpreter = new Interpreter(out, profiler, allocationProfiler, fuel, heapQuota, new ScriptFiles(null));
+        this.parallel = parallel;
+        this.functionBodies = functionBodies;
+    }
+
+    void run(Source source) {
+        List<Stmt> statements = compile(source);
+        if (statements == null) return;
+
+        execute(statements);
+    }
+
+    /*
+     * Lexes, parses and resolves, returns null if there was an error
+     */
+    List<Stmt> compile(Source source) {
+        return new Compiler(Main.reporter, parallel, functionBodies).compile(source, resolver);
+    }
+
+    void execute(List<Stmt> statements) {
+        interpreter.interpret(statements);
+    }
+}
@@ -0,0 +1,15 @@
+package tree_walk_interpreter;
+
+/*
+ * A mutable container that starts confined to one thread and can be shared later
+ * Environments, instances and arrays; see Sharing.
+ */
+interface Shareable {
+    // Flags the container as reachable from other threads, returns false if it already was
+    boolean markShared();
+
+    boolean isShared();
+
+    // Only called by Sharing right after markShared, before other threads can see the container
+    Iterable<Object> sharedValues();
+}
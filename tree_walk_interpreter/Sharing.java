@@ -0,0 +1,54 @@
+package tree_walk_interpreter;
+
+import java.util.ArrayDeque;
+
+/*
+ * Publishes values to other threads
+ * Environments, instances and arrays start out confined to one thread and unlocked.
+ * Before a value can be seen by another thread (spawned, sent on a channel,
+ * returned from join, or stored into something already shared) everything
+ * reachable from it is marked shared, so those accesses take a lock instead.
+ */
+final class Sharing {
+    private Sharing() {
+    }
+
+    static void share(Object value) {
+        if (!isMutable(value)) return;
+
+        // A worklist rather than recursion, long chains of instances are common.
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(value);
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof InterpreterFunction) {
+                for (Environment frame = ((InterpreterFunction)next).closure; frame != null; frame = frame.enclosing) {
+                    // Ancestors of a shared frame are already shared.
+                    if (!frame.markShared()) break;
+                    for (Object held : frame.sharedValues()) pushIfMutable(pending, held);
+                }
+            } else if (next instanceof Shareable) {
+                Shareable container = (Shareable)next;
+                if (!container.markShared()) continue;
+                for (Object held : container.sharedValues()) pushIfMutable(pending, held);
+                if (next instanceof InterpreterInstance) pending.push(((InterpreterInstance)next).klass);
+            } else if (next instanceof NativeMethod.Bound) {
+                pushIfMutable(pending, ((NativeMethod.Bound<?>)next).receiver);
+            } else if (next instanceof InterpreterClass) {
+                InterpreterClass klass = (InterpreterClass)next;
+                for (InterpreterFunction method : klass.methods.values()) pending.push(method);
+                if (klass.superclass != null) pending.push(klass.superclass);
+            }
+        }
+    }
+
+    private static void pushIfMutable(ArrayDeque<Object> pending, Object value) {
+        if (isMutable(value)) pending.push(value);
+    }
+
+    // Anything that holds, or can reach, state another thread could see
+    private static boolean isMutable(Object value) {
+        return value instanceof Shareable || value instanceof InterpreterFunction
+            || value instanceof InterpreterClass || value instanceof NativeMethod.Bound;
+    }
+}
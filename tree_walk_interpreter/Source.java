@@ -0,0 +1,92 @@
+package tree_walk_interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * UTF-8 bytes of a script, the Lexer scans this view directly
+ * Everything the grammar cares about is ASCII, so a byte offset is a position
+ * and multi-byte characters only show up inside strings and comments.
+ * Text is decoded per lexeme, never for the whole file.
+ */
+final class Source {
+    private final ByteBuffer bytes;
+
+    private Source(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    static Source of(String text) {
+        return new Source(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /*
+     * Maps the file instead of reading it, pages are faulted in as the Lexer reaches them
+     */
+    static Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Source(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /*
+     * A view of the bytes between start and end, positions in it start at zero
+     */
+    Source slice(int start, int end) {
+        return new Source(bytes.slice(start, end - start));
+    }
+
+    int length() {
+        return bytes.limit();
+    }
+
+    /*
+     * The byte at index widened to a char, non-ASCII bytes come back as 0x80 and above
+     */
+    char charAt(int index) {
+        return (char)(bytes.get(index) & 0xFF);
+    }
+
+    /*
+     * Decodes the UTF-8 text between start and end
+     */
+    String text(int start, int end) {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+
+        byte[] range = new byte[end - start];
+        bytes.get(start, range);
+        return new String(range, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Content hash, identifies the exact script a cached program was compiled from
+     */
+    byte[] sha256() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate().clear());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /*
+     * Compares an ASCII name against the bytes between start and end without decoding them
+     */
+    boolean matches(int start, int end, String name) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (bytes.get(start + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+}
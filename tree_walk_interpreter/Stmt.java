@@ -4,6 +4,7 @@ import java.util.List;
 
 /*
  * Statements class
+ * Child nodes aren't final so Instrumentation can wrap them in place.
  */
 abstract class Stmt {
     interface Visitor<R> {
@@ -16,6 +17,7 @@ abstract class Stmt {
     R visitReturnStmt(Return stmt);
     R visitWhileStmt(While stmt);
     R visitVarStmt(Var stmt);
+    R visitWrapperStmt(Wrapper stmt);
   }
     static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -55,13 +57,22 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
-    final Expr expression;
+    Expr expression;
   }
     static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
     this.name = name;
     this.params = params;
     this.body = body;
+    this.lazyBody = null;
+    }
+
+    // Pre-parsed function, the body is parsed on first call
+    Function(Token name, List<Token> params, LazyBody lazyBody) {
+    this.name = name;
+    this.params = params;
+    this.body = null;
+    this.lazyBody = lazyBody;
     }
 
     @Override
@@ -72,6 +83,7 @@ abstract class Stmt {
     final Token name;
     final  List<Token> params;
     final  List<Stmt> body;
+    final  LazyBody lazyBody;
   }
     static class If extends Stmt {
     If(Expr condition, Stmt thenBranch,Stmt elseBranch) {
@@ -85,9 +97,9 @@ abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
-    final Expr condition;
-    final  Stmt thenBranch;
-    final Stmt elseBranch;
+    Expr condition;
+    Stmt thenBranch;
+    Stmt elseBranch;
   }
     static class Print extends Stmt {
     Print(Expr expression) {
@@ -99,7 +111,7 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
-    final Expr expression;
+    Expr expression;
   }
     static class Return extends Stmt {
     Return(Token keyword, Expr value) {
@@ -113,7 +125,7 @@ abstract class Stmt {
     }
 
     final Token keyword;
-    final  Expr value;
+    Expr value;
   }
     static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -126,8 +138,8 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
-    final Expr condition;
-    final  Stmt body;
+    Expr condition;
+    Stmt body;
   }
     static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -141,8 +153,33 @@ abstract class Stmt {
     }
 
     final Token name;
-    final  Expr initializer;
+    Expr initializer;
   }
 
+    // Stands where node was while a probe is attached, see Instrumentation
+    static class Wrapper extends Stmt {
+    Wrapper(Stmt node, Instrumentation.Probe probe) {
+    this.node = node;
+    this.probe = probe;
+    this.line = node.line;
+    this.id = node.id;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitWrapperStmt(this);
+    }
+
+    final Stmt node;
+    final  Instrumentation.Probe probe;
+    // Node or program list holding this wrapper, kept by Instrumentation under its lock
+    Object parent;
+  }
+
+  // Line of the statement's first token, set by the Parser
+  int line;
+  // Node id, unique within its compile and set by the Parser, coverage keeps a bit per statement by it
+  int id;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,79 @@
+package tree_walk_interpreter;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Interned name. Every occurrence of the same identifier shares one Symbol,
+ * so runtime maps can hash on the precomputed id and compare by reference.
+ * The table only holds symbols weakly: a host that compiles many scripts would
+ * otherwise keep every name it ever saw. A name nothing refers to any more can
+ * come back as a new Symbol with a new id, and nothing is left to tell.
+ */
+final class Symbol {
+    private static final ConcurrentHashMap<String, Entry> interned = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    // Names the interpreter itself looks up
+    static final Symbol THIS = intern("this");
+    static final Symbol SUPER = intern("super");
+    static final Symbol INIT = intern("init");
+
+    final String name;
+    final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /*
+     * Returns the one Symbol for this name, creating it on first use
+     */
+    static Symbol intern(String name) {
+        Entry entry = interned.get(name);
+        Symbol symbol = entry == null ? null : entry.get();
+        if (symbol != null) return symbol;
+
+        removeCollected();
+        Symbol[] result = new Symbol[1];
+        interned.compute(name, (key, old) -> {
+            result[0] = old == null ? null : old.get();
+            if (result[0] != null) return old;
+            result[0] = new Symbol(key, nextId.getAndIncrement());
+            return new Entry(result[0]);
+        });
+        return result[0];
+    }
+
+    // Drops the entries of symbols the GC has cleared, unless the name was interned again since
+    private static void removeCollected() {
+        for (Reference<? extends Symbol> cleared = collected.poll(); cleared != null; cleared = collected.poll()) {
+            interned.remove(((Entry)cleared).name, cleared);
+        }
+    }
+
+    // Identity equality is inherited from Object, the id is already unique.
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final String name;
+
+        Entry(Symbol symbol) {
+            super(symbol, collected);
+            this.name = symbol.name;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package tree_walk_interpreter;
+
+/*
+ * Per-lexer cache from source character ranges to interned symbols.
+ * Repeated identifiers are found without building a substring,
+ * only the first occurrence of a name goes to Symbol.intern.
+ */
+class SymbolTable {
+    private Symbol[] entries = new Symbol[256];
+    private int[] hashes = new int[256];
+    private int count = 0;
+
+    Symbol intern(Source source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = entries.length - 1;
+        int index = mix(hash) & mask;
+        while (entries[index] != null) {
+            if (hashes[index] == hash && source.matches(start, end, entries[index].name)) {
+                return entries[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        Symbol symbol = Symbol.intern(source.text(start, end));
+        entries[index] = symbol;
+        hashes[index] = hash;
+        if (++count * 2 > entries.length) grow();
+        return symbol;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Keeps the table at most half full so probe chains stay short
+    private void grow() {
+        Symbol[] oldEntries = entries;
+        int[] oldHashes = hashes;
+        entries = new Symbol[oldEntries.length * 2];
+        hashes = new int[oldEntries.length * 2];
+
+        int mask = entries.length - 1;
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] == null) continue;
+            int index = mix(oldHashes[i]) & mask;
+            while (entries[index] != null) index = (index + 1) & mask;
+            entries[index] = oldEntries[i];
+            hashes[index] = oldHashes[i];
+        }
+    }
+}
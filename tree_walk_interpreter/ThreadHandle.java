@@ -0,0 +1,65 @@
+package tree_walk_interpreter;
+
+import java.util.List;
+
+/*
+ * A function running on its own virtual thread, made by the spawn(fn) native
+ * The thread gets its own Interpreter over the same globals. join() waits for
+ * it and returns what the function returned, or rethrows its runtime error.
+ * Anything else that ends the thread, like a stack overflow from deep
+ * recursion, comes back from join() as a "Thread failed" runtime error.
+ */
+class ThreadHandle implements NativeObject {
+    private static final Symbol JOIN = Symbol.intern("join");
+
+    private final Thread thread;
+    private final NativeFunction join;
+    // Written by the spawned thread, read after join
+    private Object result;
+    private RuntimeError error;
+    private Throwable failure;
+
+    ThreadHandle(Interpreter parent, InterpreterCallable function) {
+        Sharing.share(function);
+        parent.flushOutput();
+        thread = Thread.ofVirtual().start(() -> {
+            Interpreter interpreter = new Interpreter(parent);
+            try {
+                Object value = function.call(interpreter, List.of());
+                Sharing.share(value);
+                result = value;
+            } catch (RuntimeError runtimeError) {
+                error = runtimeError;
+            } catch (Throwable thrown) {
+                failure = thrown;
+            } finally {
+                interpreter.flushOutput();
+            }
+        });
+        join = new NativeFunction(0, (interpreter, arguments) -> {
+            try {
+                thread.join();
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null, "Interrupted while joining.");
+            }
+            if (error != null) throw error;
+            if (failure != null) {
+                String reason = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName();
+                throw new RuntimeError(null, "Thread failed: " + reason);
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public Object get(Symbol name) {
+        if (name == JOIN) return join;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "<thread>";
+    }
+}
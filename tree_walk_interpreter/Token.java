@@ -2,18 +2,25 @@ package tree_walk_interpreter;
 
 /*
  * Token class to hold information of token
+ * Identifiers and keywords also carry their interned symbol
  */
 class Token {
     final TokenType type;
     final String lexeme;
     final Object literal;
     final int line;
+    final Symbol symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     public String toString() {
@@ -0,0 +1,85 @@
+package tree_walk_interpreter;
+
+import java.util.Arrays;
+
+/*
+ * Compact token list produced by the Lexer
+ * Each token is one slot across parallel int arrays (type, start, length, line),
+ * literal values and identifier symbols sit in a side table.
+ * Token objects are only built when the Parser keeps one in the tree.
+ */
+class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Source source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private Object[] values;
+    private int size = 0;
+
+    TokenStream(Source source) {
+        this.source = source;
+        // Roughly one token per five characters of source, grown on demand
+        int capacity = Math.max(16, source.length() / 5);
+        types = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, Object value) {
+        if (size == types.length) grow();
+        types[size] = type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        values[size] = value;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    /*
+     * The literal for NUMBER and STRING tokens, the Symbol for identifiers and keywords
+     */
+    Object value(int index) {
+        return values[index];
+    }
+
+    /*
+     * Materializes the token at index for the syntax tree or an error message
+     */
+    Token token(int index) {
+        TokenType type = type(index);
+        Object value = values[index];
+        if (value instanceof Symbol) {
+            Symbol symbol = (Symbol)value;
+            return new Token(type, symbol.name, null, lines[index], symbol);
+        }
+
+        String lexeme = source.text(starts[index], starts[index] + lengths[index]);
+        return new Token(type, lexeme, value, lines[index]);
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}